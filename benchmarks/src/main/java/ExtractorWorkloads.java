@@ -0,0 +1,102 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+import pdfreader.bench.Workloads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Runs the extractors for the benchmarks in {@code pdfreader.bench} on the PDFs written by {@link SyntheticPdfs}. */
+public class ExtractorWorkloads implements Workloads {
+    PDDocument text, vector, pages, images;
+    final CountingWriter out = new CountingWriter();
+    final List<List<ImageExtractor2.Position>> tiledPages = new ArrayList<>();
+
+    @Override
+    public void open(File pdfDir) throws IOException {
+        text = PDDocument.load(new File(pdfDir, "text.pdf"));
+        vector = PDDocument.load(new File(pdfDir, "vector.pdf"));
+        pages = PDDocument.load(new File(pdfDir, "pages.pdf"));
+        images = PDDocument.load(new File(pdfDir, "images.pdf"));
+        for (int p = 1; p <= 4; p++) {
+            List<ImageExtractor2.Position> page = new ArrayList<>();
+            for (int x = 0; x < 100; x++) {
+                for (int y = 0; y < 100; y++) page.add(new ImageExtractor2.Position(p, x * 6, y * 8, 6, 8));
+            }
+            page.add(new ImageExtractor2.Position(p, 100, 100, 200, 150));
+            page.add(new ImageExtractor2.Position(p, 320 + p, 400, 120, 90));
+            tiledPages.add(page);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        text.close();
+        vector.close();
+        pages.close();
+        images.close();
+    }
+
+    @Override
+    public long textPage() throws IOException {
+        new TextDrawExtractor(out, text.getPage(0), 0).processPage(text.getPage(0));
+        return out.count;
+    }
+
+    @Override
+    public long drawPage() throws IOException {
+        new TextDrawExtractor(out, vector.getPage(0), 0).processPage(vector.getPage(0));
+        return out.count;
+    }
+
+    @Override
+    public long manyPages() throws IOException {
+        TextDrawExtractor.process(pages, out);
+        return out.count;
+    }
+
+    @Override
+    public long imagePlacement() throws IOException {
+        ImageExtractor.process(images, out);
+        return out.count;
+    }
+
+    @Override
+    public long imageExtractor2() throws IOException {
+        ImageExtractor2.process(images, out);
+        return out.count;
+    }
+
+    @Override
+    public int imageExtractor2Filters() {
+        ImageExtractor2.SameCoordinateFilter sameCoordinate = new ImageExtractor2.SameCoordinateFilter();
+        for (List<ImageExtractor2.Position> page : tiledPages) {
+            for (ImageExtractor2.Position pos : ImageExtractor2.filterAdjacent(page)) {
+                if (!(pos.width < 50 || pos.height < 50)) sameCoordinate.accept(pos);
+            }
+        }
+        return sameCoordinate.result().size();
+    }
+
+    /** Discards the output but counts it, so the work cannot be optimized away. */
+    static class CountingWriter extends Writer {
+        long count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    }
+}
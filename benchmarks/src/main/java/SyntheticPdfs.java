@@ -0,0 +1,96 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the PDFs the benchmarks run on: text-heavy, vector-heavy, image-tiled and many-page.
+ * They only use the standard 14 fonts, so the output does not depend on the machine.
+ */
+public class SyntheticPdfs {
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args[0]);
+        dir.mkdirs();
+        text(new File(dir, "text.pdf"), 4, 60);
+        vector(new File(dir, "vector.pdf"));
+        images(new File(dir, "images.pdf"));
+        text(new File(dir, "pages.pdf"), 200, 5);
+    }
+
+    static void text(File file, int pages, int lines) throws IOException {
+        PDFont[] fonts = { PDType1Font.HELVETICA, PDType1Font.TIMES_ROMAN, PDType1Font.COURIER_BOLD };
+        try (PDDocument doc = new PDDocument()) {
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage(PDRectangle.LETTER);
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    for (int l = 0; l < lines; l++) {
+                        cs.beginText();
+                        cs.setFont(fonts[l % fonts.length], 8 + l % 3);
+                        cs.newLineAtOffset(36, 760 - l * 12);
+                        cs.showText("Line " + l + " of page " + p + ": the quick brown fox jumps over the lazy dog 0123456789");
+                        cs.endText();
+                    }
+                }
+            }
+            doc.save(file);
+        }
+    }
+
+    static void vector(File file) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            for (int p = 0; p < 4; p++) {
+                PDPage page = new PDPage(PDRectangle.LETTER);
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    // chart gridlines, small filled cells and curves, as in CAD drawings and plots
+                    for (int i = 0; i <= 100; i++) {
+                        cs.moveTo(36 + i * 5, 36);
+                        cs.lineTo(36 + i * 5, 536);
+                        cs.moveTo(36, 36 + i * 5);
+                        cs.lineTo(536, 36 + i * 5);
+                    }
+                    cs.stroke();
+                    for (int i = 0; i < 400; i++) {
+                        cs.addRect(36 + (i % 20) * 25, 560 + (i / 20) * 10, 20, 8);
+                        cs.fill();
+                        cs.moveTo(36 + i, 760);
+                        cs.curveTo(40 + i, 770, 44 + i, 750, 48 + i, 760);
+                        cs.stroke();
+                    }
+                }
+            }
+            doc.save(file);
+        }
+    }
+
+    static void images(File file) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            BufferedImage tile = new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB);
+            for (int x = 0; x < 8; x++) for (int y = 0; y < 8; y++) tile.setRGB(x, y, (x * 32) << 16 | (y * 32) << 8);
+            PDImageXObject image = LosslessFactory.createFromImage(doc, tile);
+            for (int p = 0; p < 4; p++) {
+                PDPage page = new PDPage(PDRectangle.LETTER);
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    // a scanned page split into tiles, plus figures repeated at the same place on every page
+                    for (int x = 0; x < 50; x++) {
+                        for (int y = 0; y < 60; y++) cs.drawImage(image, 36 + x * 10, 36 + y * 12, 10, 12);
+                    }
+                    cs.drawImage(image, 100, 100, 200, 150);
+                    cs.drawImage(image, 320 + p, 400, 120, 90);
+                }
+            }
+            doc.save(file);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package pdfreader.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+    Workloads workloads;
+
+    @Setup
+    public void open() throws IOException {
+        workloads = Workloads.create(Workloads.pdfDir());
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        workloads.close();
+    }
+
+    @Benchmark
+    public long imagePlacement() throws IOException {
+        return workloads.imagePlacement();
+    }
+
+    @Benchmark
+    public long imageExtractor2() throws IOException {
+        return workloads.imageExtractor2();
+    }
+
+    @Benchmark
+    public int imageExtractor2Filters() {
+        return workloads.imageExtractor2Filters();
+    }
+}
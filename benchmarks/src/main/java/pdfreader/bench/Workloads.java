@@ -0,0 +1,47 @@
+package pdfreader.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The work measured by the benchmarks. The extractors live in the default package, which JMH does not accept
+ * for benchmarks and which cannot be imported, so {@code ExtractorWorkloads} implements this from there.
+ */
+public interface Workloads {
+
+    static Workloads create(File pdfDir) throws IOException {
+        try {
+            Workloads w = (Workloads) Class.forName("ExtractorWorkloads").getDeclaredConstructor().newInstance();
+            w.open(pdfDir);
+            return w;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static File pdfDir() {
+        return new File(System.getProperty("pdfreader.pdfs", "build/pdfs"));
+    }
+
+    void open(File pdfDir) throws IOException;
+
+    void close() throws IOException;
+
+    /** One text-heavy page; dominated by showFontGlyph. */
+    long textPage() throws IOException;
+
+    /** One vector-heavy page; dominated by the path callbacks. */
+    long drawPage() throws IOException;
+
+    /** TextDrawExtractor on a 200-page document, to show the per-page overhead. */
+    long manyPages() throws IOException;
+
+    /** ImageExtractor on an image-tiled document. */
+    long imagePlacement() throws IOException;
+
+    /** ImageExtractor2 on an image-tiled document. */
+    long imageExtractor2() throws IOException;
+
+    /** The ImageExtractor2 filters alone, on 4 pages of 100 x 100 touching tiles. */
+    int imageExtractor2Filters();
+}
@@ -0,0 +1,390 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs one of the extractors over files and directories on a bounded worker pool, admitting documents
+ * against a {@link MemoryBudget} ({@code --heap-budget <size>}, three quarters of the heap by default). Large
+ * documents are run one at a time on a thread of their own, so they do not hold up the small files behind them.
+ *
+ * Each document is written to its own output (a file in the output directory, under the directories of its path
+ * relative to the directory given, or an atomic {@link OutputSink.Document} of the shared output), so lines from
+ * different documents never interleave.
+ *
+ * A corpus is split over hosts with {@code --shard i/N} (0 <= i < N): each process takes the files whose path,
+ * relative to the directory given (or as given, for files and {@code --manifest} entries), hashes to i. With
+ * {@code --journal <file>} every finished document is logged (see {@link Journal}) and, unless it failed, skipped
+ * when the run is restarted. {@code BatchRunner --merge <output|-> <journal>...} then concatenates the outputs listed in the
+ * journals, in path order, and sums up their documents, pages and times.
+ */
+public class BatchRunner {
+
+    public static void main(String[] args) throws Exception {
+        args = CommonOptions.parse(args);
+        if (args.length > 0 && "--merge".equals(args[0])) {
+            if (args.length < 3) {
+                usage();
+                return;
+            }
+            List<Path> journals = new ArrayList<>();
+            for (int i = 2; i < args.length; i++) journals.add(Paths.get(args[i]));
+            System.err.println(merge(args[1], journals));
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean virtual = false;
+        Path outDir = null;
+        long heapBudget = MemoryBudget.defaultBudget();
+        int shard = 0, shards = 1;
+        Path journal = null;
+        List<Path> manifests = new ArrayList<>();
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            switch (args[i]) {
+                case "-t": case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--virtual": virtual = true; break;
+                case "-o": case "--out": outDir = Paths.get(args[++i]); break;
+                case "--heap-budget": heapBudget = DocumentLoader.parseSize(args[++i]); break;
+                case "--shard":
+                    String[] spec = args[++i].split("/");
+                    shard = Integer.parseInt(spec[0]);
+                    shards = Integer.parseInt(spec[1]);
+                    if (shard < 0 || shard >= shards) throw new IllegalArgumentException("--shard must be i/N with 0 <= i < N");
+                    break;
+                case "--journal": journal = Paths.get(args[++i]); break;
+                case "--manifest": manifests.add(Paths.get(args[++i])); break;
+                default: usage(); return;
+            }
+        }
+        if (args.length - i < (manifests.isEmpty() ? 2 : 1) || !DocumentExtractor.ALL.containsKey(args[i])) {
+            usage();
+            return;
+        }
+        BatchRunner runner = new BatchRunner(args[i], threads, virtual, outDir, heapBudget);
+        runner.shard = shard;
+        runner.shards = shards;
+        if (journal != null) {
+            if (runner.sharedOutput()) throw new IllegalArgumentException("--journal needs -o");
+            runner.journal = new Journal(journal);
+        }
+        for (Path manifest : manifests) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) runner.submitShard(Paths.get(line), line);
+            }
+        }
+        for (i++; i < args.length; i++) runner.submitAll(Paths.get(args[i]));
+        runner.finish();
+        System.err.println(runner.summary());
+        CommonOptions.finish();
+    }
+
+    static void usage() {
+        System.err.println("Usage: java BatchRunner [-t threads] [--virtual] [-o outdir] [--heap-budget size] [--shard i/N] [--journal file] [--manifest file] [--memory policy] [--scratch-dir dir] [--metrics json|prometheus[:file]] [--cache dir] [--cache-size size] [--output file] [--gzip] [--roll size] <"
+                + String.join("|", DocumentExtractor.ALL.keySet()) + "> <pdf | directory>...");
+        System.err.println("       java BatchRunner --merge <output | -> <journal>...");
+    }
+
+    final String name;
+    final DocumentExtractor extractor;
+    final Path outDir;
+    final ExecutorService pool;
+    final Semaphore slots;
+    final MemoryBudget budget;
+    final ExecutorService largeLane = Executors.newSingleThreadExecutor();
+    final AtomicLong largeDocs = new AtomicLong();
+    /** Wall time of each document, including loading and writing. */
+    final List<Long> documentNanos = new ArrayList<>();
+    final AtomicLong docs = new AtomicLong();
+    final AtomicLong pages = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+    /** Outputs of the documents submitted so far, to catch two PDFs that would write the same file. */
+    final Set<Path> outputs = ConcurrentHashMap.newKeySet();
+    int shard, shards = 1;
+    Journal journal;
+    long startNanos;
+    long endNanos;
+
+    public BatchRunner(String name, int threads, boolean virtual, Path outDir, long heapBudget) throws IOException {
+        this.name = name;
+        this.extractor = DocumentExtractor.ALL.get(name);
+        this.outDir = outDir;
+        this.pool = virtual ? newVirtualThreadExecutor() : Executors.newFixedThreadPool(threads);
+        // also bounds the number of queued files, so a huge walk does not pile up tasks
+        this.slots = new Semaphore(threads);
+        this.budget = new MemoryBudget(heapBudget);
+        this.startNanos = System.nanoTime();
+    }
+
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("virtual threads require Java 21 or later", e);
+        }
+    }
+
+    public void submitAll(Path p) throws IOException, InterruptedException {
+        if (!Files.isDirectory(p)) {
+            submitShard(p, p.toString());
+            return;
+        }
+        Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (file.toString().endsWith(".pdf")) {
+                    try {
+                        submitShard(file, p.relativize(file).toString().replace(File.separatorChar, '/'));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return FileVisitResult.TERMINATE;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Submits the file if it belongs to this shard and is not done yet; {@code key}, its path relative to the
+     * directory walked, is what is hashed and where its output goes under the output directory.
+     */
+    void submitShard(Path file, String key) throws InterruptedException {
+        if (shardOf(key, shards) != shard) return;
+        Path output = sharedOutput() ? null : outputPath(file, key);
+        // also for the documents done by an earlier run, whose outputs are still there
+        if (output != null && !outputs.add(output.toAbsolutePath().normalize())) {
+            failures.incrementAndGet();
+            System.err.println(file + ": output " + output + " is already written by another PDF");
+            return;
+        }
+        if (journal != null && journal.isDone(file)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        submit(file, output);
+    }
+
+    /**
+     * The shard of a file: the first 8 bytes of the SHA-256 of its key in UTF-8, as an unsigned number modulo the
+     * shards. It is stable, the same for every process, host and Java version, unlike the walk order, the mount
+     * point or String.hashCode, so shards of one corpus never overlap or miss a file.
+     */
+    static int shardOf(String key, int shards) {
+        if (shards == 1) return 0;
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long hash = ByteBuffer.wrap(digest.digest(key.getBytes(StandardCharsets.UTF_8))).getLong();
+        return (int) Long.remainderUnsigned(hash, shards);
+    }
+
+    /** Processes the file on the pool, writing to {@code output}, or to the shared output if it is null. */
+    public void submit(Path file, Path output) throws InterruptedException {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            // fails again when loading, and is reported then
+            size = 0;
+        }
+        long fileBytes = size;
+        // only one large document runs or waits at a time
+        if (budget.isLarge(budget.estimate(fileBytes))) {
+            largeDocs.incrementAndGet();
+            largeLane.execute(() -> {
+                try (MemoryBudget.Reservation reservation = budget.reserve(fileBytes, true)) {
+                    processFile(file, output, reservation);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            return;
+        }
+        slots.acquire();
+        MemoryBudget.Reservation reservation;
+        try {
+            reservation = budget.reserve(fileBytes, false);
+        } catch (InterruptedException e) {
+            slots.release();
+            throw e;
+        }
+        pool.execute(() -> {
+            try (MemoryBudget.Reservation r = reservation) {
+                processFile(file, output, r);
+            } finally {
+                slots.release();
+            }
+        });
+    }
+
+    /** Whether documents are written to the shared output rather than to a file each. */
+    boolean sharedOutput() {
+        // ImageExtractor2 has always written a .image sidecar next to the PDF
+        return outDir == null && !"ImageExtractor2".equals(name);
+    }
+
+    void processFile(Path file, Path output, MemoryBudget.Reservation reservation) {
+        long start = System.nanoTime();
+        int numPages = 0;
+        boolean ok = false;
+        try {
+            ResultCache.Extraction extraction = out -> {
+                try (PDDocument doc = DocumentLoader.load(file)) {
+                    reservation.pages(doc.getNumberOfPages());
+                    extractor.process(doc, out);
+                    return doc.getNumberOfPages();
+                }
+            };
+            if (sharedOutput()) {
+                OutputSink.Document document = OutputSink.openAtomic();
+                try {
+                    numPages = ResultCache.extract(file, name, Metrics.wrap(document), extraction);
+                } catch (Throwable e) {
+                    document.discard();
+                    throw e;
+                }
+                document.close();
+            } else if ((numPages = ResultCache.current(file, name, output)) < 0) {
+                Files.createDirectories(output.toAbsolutePath().getParent());
+                FileOutputStream stream = new FileOutputStream(output.toFile());
+                try (Writer w = Metrics.wrap(new BufferedWriter(new OutputStreamWriter(stream, "UTF-8")))) {
+                    numPages = ResultCache.extract(file, name, w, extraction);
+                    // the journal must not list a document whose output a crash could still lose
+                    if (journal != null) {
+                        w.flush();
+                        stream.getFD().sync();
+                    }
+                }
+            }
+            docs.incrementAndGet();
+            pages.addAndGet(numPages);
+            ok = true;
+        } catch (Throwable e) {
+            // also errors such as a StackOverflowError from a deeply nested document: the others go on
+            failures.incrementAndGet();
+            System.err.println(file + ": " + e);
+        }
+        long nanos = System.nanoTime() - start;
+        synchronized (documentNanos) {
+            documentNanos.add(nanos);
+        }
+        if (journal != null) {
+            try {
+                journal.finished(file, ok, numPages, nanos, ok ? output : null);
+            } catch (IOException e) {
+                // not fatal: the document is done again after a restart
+                System.err.println(journal.path + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * The output of a PDF: next to it without an output directory, else at its path {@code relative} to the
+     * directory walked under the output directory, so that PDFs of the same name in different directories do
+     * not share an output. Files given by an absolute path, or outside the current directory, go to the top.
+     */
+    Path outputPath(Path file, String relative) {
+        String fileName = DocumentExtractor.outputName(file, DocumentExtractor.suffix(name));
+        if (outDir == null) return file.resolveSibling(fileName);
+        Path parent = Paths.get(relative).normalize().getParent();
+        if (parent == null || parent.isAbsolute() || parent.startsWith("..")) return outDir.resolve(fileName);
+        return outDir.resolve(parent).resolve(fileName);
+    }
+
+    public void finish() throws InterruptedException, IOException {
+        pool.shutdown();
+        largeLane.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        largeLane.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        endNanos = System.nanoTime();
+        if (journal != null) journal.close();
+    }
+
+    public String summary() {
+        double seconds = (endNanos - startNanos) / 1e9;
+        String summary = String.format("%s: %d docs (%d large), %d failed, %d pages in %.1f s (%.2f docs/s, %.2f pages/s, p99 %.2f s/doc), %s",
+                name, docs.get(), largeDocs.get(), failures.get(), pages.get(), seconds, docs.get() / seconds, pages.get() / seconds,
+                documentSeconds(0.99), budget.summary());
+        if (shards > 1) summary += String.format(", shard %d/%d", shard, shards);
+        if (journal != null) summary += String.format(", %d already done", skipped.get());
+        return summary;
+    }
+
+    /** The {@code q} quantile of the document times, nearest rank. */
+    double documentSeconds(double q) {
+        List<Long> nanos;
+        synchronized (documentNanos) {
+            nanos = new ArrayList<>(documentNanos);
+        }
+        return quantileSeconds(nanos, q);
+    }
+
+    static double quantileSeconds(List<Long> nanos, double q) {
+        if (nanos.isEmpty()) return 0;
+        Collections.sort(nanos);
+        return nanos.get(Math.max(0, (int) Math.ceil(q * nanos.size()) - 1)) / 1e9;
+    }
+
+    /**
+     * Writes the outputs of the documents done in the journals to {@code output} ({@code -} for stdout), in the
+     * order of their PDF paths, and returns a summary. A document in several journals is taken once.
+     */
+    static String merge(String output, List<Path> journals) throws IOException {
+        Map<String, Path> outputs = new TreeMap<>();
+        Map<String, Journal.Entry> entries = new TreeMap<>();
+        for (Path journal : journals) {
+            Path dir = journal.toAbsolutePath().getParent();
+            for (Journal.Entry e : Journal.read(journal)) {
+                entries.put(e.pdf, e);
+                if (e.ok) outputs.put(e.pdf, dir.resolve(e.output));
+                else outputs.remove(e.pdf);
+            }
+        }
+        long docs = 0, failed = 0, pages = 0, nanos = 0;
+        List<Long> documentNanos = new ArrayList<>();
+        for (Journal.Entry e : entries.values()) {
+            if (e.ok) {
+                docs++;
+                pages += e.pages;
+            } else {
+                failed++;
+            }
+            nanos += e.nanos;
+            documentNanos.add(e.nanos);
+        }
+        try (OutputStream out = "-".equals(output) ? new FilterOutputStream(System.out) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        } : new BufferedOutputStream(new FileOutputStream(output), 1 << 20)) {
+            for (Path path : outputs.values()) Files.copy(path, out);
+        }
+        return String.format("merged %d journals: %d docs, %d failed, %d pages, %.1f document-seconds (p50 %.2f s/doc, p99 %.2f s/doc)",
+                journals.size(), docs, failed, pages, nanos / 1e9,
+                quantileSeconds(documentNanos, 0.5), quantileSeconds(documentNanos, 0.99));
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-maps a file written by {@link BinaryRecordSink} and gives random access to its pages.
+ * Each page is mapped on first access, so files larger than 2 GB are fine as long as single pages are not.
+ */
+public class BinaryRecordReader implements Closeable {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java BinaryRecordReader <tdb>");
+            return;
+        }
+        try (BinaryRecordReader reader = new BinaryRecordReader(Paths.get(args[0]))) {
+            System.out.println("pages=" + reader.getNumberOfPages() + " strings=" + reader.strings.length);
+            for (int i = 0; i < reader.getNumberOfPages(); i++) {
+                Page page = reader.getPage(i);
+                System.out.println(page.pageNo + "\tglyphs=" + page.glyphCount + "\tpaths=" + page.pathCount
+                        + (page.partial != null ? "\tpartial=" + page.partial : ""));
+            }
+        }
+    }
+
+    final FileChannel channel;
+    final String[] strings;
+    final int[] pageNos;
+    final long[] offsets;
+
+    public BinaryRecordReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - 20, 20);
+        long dictionaryOffset = footer.getLong();
+        long indexOffset = footer.getLong();
+        if (footer.getInt() != BinaryRecordSink.MAGIC) throw new IOException(path + ": not a complete TDB file");
+
+        ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset, size - 20 - dictionaryOffset);
+        strings = new String[tail.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[tail.getInt()];
+            tail.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        tail.position((int) (indexOffset - dictionaryOffset));
+        int count = tail.getInt();
+        pageNos = new int[count];
+        offsets = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            pageNos[i] = tail.getInt();
+            offsets[i] = tail.getLong();
+        }
+        offsets[count] = dictionaryOffset;
+    }
+
+    public int getNumberOfPages() {
+        return pageNos.length;
+    }
+
+    /** The i-th page written, 0-based; {@link Page#pageNo} is its 1-based page number in the PDF. */
+    public Page getPage(int i) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], offsets[i + 1] - offsets[i]);
+        return new Page(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Column view of one page; getters read straight from the mapped buffer. */
+    public class Page {
+        final ByteBuffer buffer;
+        public final int pageNo;
+        /** Why the page was cut short, null if it is complete. */
+        public final String partial;
+        public final int glyphCount;
+        final int unicodeAt, fontAt, floatsAt;
+        public final int pathCount;
+        final int paintAt, opEndAt, coordEndAt, opAt, coordAt;
+        final int runCount, runAt;
+        /** Reused by {@link #replayPath}. */
+        byte[] ops = new byte[16];
+        float[] coords = new float[64];
+
+        Page(ByteBuffer buffer) {
+            this.buffer = buffer;
+            pageNo = buffer.getInt(0);
+            int partialId = buffer.getInt(4);
+            partial = partialId < 0 ? null : strings[partialId];
+            glyphCount = buffer.getInt(8);
+            unicodeAt = 12;
+            fontAt = unicodeAt + 4 * glyphCount;
+            floatsAt = fontAt + 4 * glyphCount;
+            int pathsAt = floatsAt + 6 * 4 * glyphCount;
+            pathCount = buffer.getInt(pathsAt);
+            paintAt = pathsAt + 4;
+            opEndAt = paintAt + pathCount;
+            coordEndAt = opEndAt + 4 * pathCount;
+            int opCountAt = coordEndAt + 4 * pathCount;
+            opAt = opCountAt + 4;
+            int coordCountAt = opAt + buffer.getInt(opCountAt);
+            coordAt = coordCountAt + 4;
+            int runCountAt = coordAt + 4 * buffer.getInt(coordCountAt);
+            runCount = buffer.getInt(runCountAt);
+            runAt = runCountAt + 4;
+        }
+
+        public String unicode(int glyph) { return strings[buffer.getInt(unicodeAt + 4 * glyph)]; }
+        public String fontName(int glyph) { return strings[buffer.getInt(fontAt + 4 * glyph)]; }
+        float column(int column, int glyph) { return buffer.getFloat(floatsAt + 4 * (column * glyphCount + glyph)); }
+        public float x(int glyph) { return column(0, glyph); }
+        public float y(int glyph) { return column(1, glyph); }
+        public float width(int glyph) { return column(2, glyph); }
+        public float height(int glyph) { return column(3, glyph); }
+        public float fontSize(int glyph) { return column(4, glyph); }
+        public float spaceWidth(int glyph) { return column(5, glyph); }
+
+        /** {@link RecordSink#STROKE_PATH} or {@link RecordSink#FILL_PATH}. */
+        public byte paint(int path) { return buffer.get(paintAt + path); }
+        public int opStart(int path) { return path == 0 ? 0 : buffer.getInt(opEndAt + 4 * (path - 1)); }
+        public int opEnd(int path) { return buffer.getInt(opEndAt + 4 * path); }
+        public int coordStart(int path) { return path == 0 ? 0 : buffer.getInt(coordEndAt + 4 * (path - 1)); }
+        public int coordEnd(int path) { return buffer.getInt(coordEndAt + 4 * path); }
+        public byte op(int op) { return buffer.get(opAt + op); }
+        public float coord(int coord) { return buffer.getFloat(coordAt + 4 * coord); }
+
+        /**
+         * Replays this page into a sink in the order the records were written, e.g. into a {@link TsvRecordSink}
+         * to get the text format back.
+         */
+        public void replay(RecordSink sink) throws IOException {
+            sink.startPage(pageNo);
+            int glyph = 0, path = 0;
+            for (int r = 0; r < runCount; r++) {
+                int run = buffer.getInt(runAt + 4 * r);
+                for (int i = 0; i < run; i++) {
+                    if (r % 2 == 0) replayGlyph(sink, glyph++);
+                    else replayPath(sink, path++);
+                }
+            }
+            if (partial != null) sink.partial(pageNo, partial);
+            sink.endPage(pageNo);
+        }
+
+        void replayGlyph(RecordSink sink, int g) throws IOException {
+            sink.glyph(unicode(g), pageNo, x(g), y(g), width(g), height(g), fontName(g), fontSize(g), spaceWidth(g));
+        }
+
+        void replayPath(RecordSink sink, int p) throws IOException {
+            int opCount = opEnd(p) - opStart(p);
+            int coordCount = coordEnd(p) - coordStart(p);
+            if (ops.length < opCount) ops = new byte[opCount];
+            if (coords.length < coordCount) coords = new float[coordCount];
+            for (int i = 0; i < opCount; i++) ops[i] = op(opStart(p) + i);
+            for (int i = 0; i < coordCount; i++) coords[i] = coord(coordStart(p) + i);
+            sink.path(paint(p), pageNo, ops, opCount, coords);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes records in a compact binary columnar format, read back by {@link BinaryRecordReader}.
+ *
+ * <pre>
+ * file   := MAGIC page* dictionary index footer
+ * page   := pageNo:int partial:int
+ *           glyphCount:int unicode:int[n] font:int[n] x,y,width,height,fontSize,spaceWidth:float[n] each
+ *           pathCount:int paint:byte[m] opEnd:int[m] coordEnd:int[m]
+ *           opCount:int op:byte[k] coordCount:int coord:float[c]
+ *           runCount:int run:int[r]
+ * dictionary := count:int (length:int utf8:byte[length])*     unicode, font and partial ids index into it
+ * index  := count:int (pageNo:int offset:long)*
+ * footer := dictionaryOffset:long indexOffset:long MAGIC
+ * </pre>
+ * partial is the reason the page was cut short (see {@link Limits}), -1 if it is complete. The runs give the order
+ * of the records: so many glyphs, then so many paths, then glyphs again and so on, starting with glyphs.
+ *
+ * All values are big-endian. Pages are written as soon as they end; the dictionary and the index follow the last
+ * page, so a file that was not closed cannot be read.
+ */
+public class BinaryRecordSink implements RecordSink, Closeable {
+    static final int MAGIC = 0x54444232; // "TDB2"
+
+    final DataOutputStream out;
+    long written;
+
+    final Map<String, Integer> dictionary = new HashMap<>();
+    final List<String> strings = new ArrayList<>();
+    final List<long[]> index = new ArrayList<>();
+
+    int glyphCount;
+    int[] unicodes = new int[256], fonts = new int[256];
+    float[][] glyphColumns = new float[6][256];
+
+    int pathCount;
+    byte[] paints = new byte[64];
+    int[] opEnds = new int[64], coordEnds = new int[64];
+    int opCount, coordCount;
+    byte[] ops = new byte[256];
+    float[] coords = new float[512];
+
+    int partial = -1;
+    int runCount;
+    int[] runs = new int[64];
+
+    public BinaryRecordSink(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        writeInt(MAGIC);
+    }
+
+    int intern(String s) {
+        Integer id = dictionary.get(s);
+        if (id == null) {
+            id = strings.size();
+            dictionary.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+
+    @Override
+    public void startPage(int pageNo) {
+        glyphCount = 0;
+        pathCount = 0;
+        opCount = 0;
+        coordCount = 0;
+        partial = -1;
+        runCount = 0;
+    }
+
+    /** Counts a record of the kind, 0 for a glyph and 1 for a path, in the run of its kind. */
+    void record(int kind) {
+        while (runCount == 0 || (runCount - 1) % 2 != kind) {
+            if (runCount == runs.length) runs = Arrays.copyOf(runs, runCount * 2);
+            runs[runCount++] = 0;
+        }
+        runs[runCount - 1]++;
+    }
+
+    @Override
+    public void glyph(String unicode, int pageNo, float x, float y, float width, float height,
+                      String fontName, float fontSize, float spaceWidth) {
+        if (glyphCount == unicodes.length) {
+            unicodes = Arrays.copyOf(unicodes, glyphCount * 2);
+            fonts = Arrays.copyOf(fonts, glyphCount * 2);
+            for (int c = 0; c < glyphColumns.length; c++) glyphColumns[c] = Arrays.copyOf(glyphColumns[c], glyphCount * 2);
+        }
+        unicodes[glyphCount] = intern(unicode);
+        fonts[glyphCount] = intern(String.valueOf(fontName));
+        glyphColumns[0][glyphCount] = x;
+        glyphColumns[1][glyphCount] = y;
+        glyphColumns[2][glyphCount] = width;
+        glyphColumns[3][glyphCount] = height;
+        glyphColumns[4][glyphCount] = fontSize;
+        glyphColumns[5][glyphCount] = spaceWidth;
+        glyphCount++;
+        record(0);
+    }
+
+    @Override
+    public void path(byte paint, int pageNo, byte[] pathOps, int pathOpCount, float[] pathCoords) {
+        int pathCoordCount = 0;
+        for (int i = 0; i < pathOpCount; i++) pathCoordCount += COORDS[pathOps[i]];
+        if (pathCount == paints.length) {
+            paints = Arrays.copyOf(paints, pathCount * 2);
+            opEnds = Arrays.copyOf(opEnds, pathCount * 2);
+            coordEnds = Arrays.copyOf(coordEnds, pathCount * 2);
+        }
+        if (opCount + pathOpCount > ops.length) ops = Arrays.copyOf(ops, Math.max(ops.length * 2, opCount + pathOpCount));
+        if (coordCount + pathCoordCount > coords.length) coords = Arrays.copyOf(coords, Math.max(coords.length * 2, coordCount + pathCoordCount));
+        System.arraycopy(pathOps, 0, ops, opCount, pathOpCount);
+        System.arraycopy(pathCoords, 0, coords, coordCount, pathCoordCount);
+        opCount += pathOpCount;
+        coordCount += pathCoordCount;
+        paints[pathCount] = paint;
+        opEnds[pathCount] = opCount;
+        coordEnds[pathCount] = coordCount;
+        pathCount++;
+        record(1);
+    }
+
+    @Override
+    public void partial(int pageNo, String reason) {
+        partial = intern(String.valueOf(reason));
+    }
+
+    @Override
+    public void endPage(int pageNo) throws IOException {
+        index.add(new long[] { pageNo, written });
+        writeInt(pageNo);
+        writeInt(partial);
+        writeInt(glyphCount);
+        for (int i = 0; i < glyphCount; i++) writeInt(unicodes[i]);
+        for (int i = 0; i < glyphCount; i++) writeInt(fonts[i]);
+        for (float[] column : glyphColumns) {
+            for (int i = 0; i < glyphCount; i++) writeFloat(column[i]);
+        }
+        writeInt(pathCount);
+        out.write(paints, 0, pathCount);
+        written += pathCount;
+        for (int i = 0; i < pathCount; i++) writeInt(opEnds[i]);
+        for (int i = 0; i < pathCount; i++) writeInt(coordEnds[i]);
+        writeInt(opCount);
+        out.write(ops, 0, opCount);
+        written += opCount;
+        writeInt(coordCount);
+        for (int i = 0; i < coordCount; i++) writeFloat(coords[i]);
+        writeInt(runCount);
+        for (int i = 0; i < runCount; i++) writeInt(runs[i]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        long dictionaryOffset = written;
+        writeInt(strings.size());
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            out.write(bytes);
+            written += bytes.length;
+        }
+        long indexOffset = written;
+        writeInt(index.size());
+        for (long[] entry : index) {
+            writeInt((int) entry[0]);
+            writeLong(entry[1]);
+        }
+        writeLong(dictionaryOffset);
+        writeLong(indexOffset);
+        writeInt(MAGIC);
+        out.close();
+        if (Metrics.enabled) Metrics.bytesWritten.add(written);
+    }
+
+    void writeInt(int v) throws IOException {
+        out.writeInt(v);
+        written += 4;
+    }
+
+    void writeLong(long v) throws IOException {
+        out.writeLong(v);
+        written += 8;
+    }
+
+    void writeFloat(float v) throws IOException {
+        out.writeFloat(v);
+        written += 4;
+    }
+}
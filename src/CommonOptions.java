@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Options shared by all commands, parsed before their own arguments:
+ * <ul>
+ *     <li>{@code --memory}, {@code --scratch-dir}: see {@link DocumentLoader}</li>
+ *     <li>{@code --metrics json|prometheus[:file]}: see {@link Metrics}</li>
+ *     <li>{@code --cache}, {@code --cache-size}: see {@link ResultCache}</li>
+ *     <li>{@code --form-cache}: see {@link FormCache}</li>
+ *     <li>{@code --output}, {@code --gzip}, {@code --roll}: see {@link OutputSink}</li>
+ *     <li>{@code --doc-timeout}, {@code --page-timeout}, {@code --max-operators}: see {@link Limits}</li>
+ *     <li>{@code --first}, {@code --pages}, {@code --stride}, {@code --sample}, {@code --max-records}: see
+ *     {@link PageSelection}</li>
+ * </ul>
+ */
+final class CommonOptions {
+    private CommonOptions() {
+    }
+
+    static String metricsFormat;
+    static String metricsFile;
+    static String cacheDir;
+    static long cacheSize = 10L << 30;
+
+    /** Consumes the common options from {@code args} and returns the remaining arguments. */
+    static String[] parse(String[] args) throws IOException {
+        args = DocumentLoader.parseOptions(args);
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--metrics".equals(args[i]) && i + 1 < args.length) {
+                String spec = args[++i];
+                int colon = spec.indexOf(':');
+                metricsFormat = colon < 0 ? spec : spec.substring(0, colon);
+                metricsFile = colon < 0 ? null : spec.substring(colon + 1);
+                if (!"json".equals(metricsFormat) && !"prometheus".equals(metricsFormat)) {
+                    throw new IllegalArgumentException("--metrics must be json or prometheus: " + spec);
+                }
+                Metrics.enabled = true;
+            } else if ("--cache".equals(args[i]) && i + 1 < args.length) {
+                cacheDir = args[++i];
+            } else if ("--cache-size".equals(args[i]) && i + 1 < args.length) {
+                cacheSize = DocumentLoader.parseSize(args[++i]);
+            } else if ("--form-cache".equals(args[i]) && i + 1 < args.length) {
+                FormCache.maxBytes = DocumentLoader.parseSize(args[++i]);
+            } else if ("--output".equals(args[i]) && i + 1 < args.length) {
+                OutputSink.outputPath = args[++i];
+            } else if ("--gzip".equals(args[i])) {
+                OutputSink.gzip = true;
+            } else if ("--roll".equals(args[i]) && i + 1 < args.length) {
+                OutputSink.rollBytes = DocumentLoader.parseSize(args[++i]);
+            } else if ("--doc-timeout".equals(args[i]) && i + 1 < args.length) {
+                Limits.documentNanos = (long) (Double.parseDouble(args[++i]) * 1e9);
+            } else if ("--page-timeout".equals(args[i]) && i + 1 < args.length) {
+                Limits.pageNanos = (long) (Double.parseDouble(args[++i]) * 1e9);
+            } else if ("--max-operators".equals(args[i]) && i + 1 < args.length) {
+                Limits.maxOperators = Long.parseLong(args[++i]);
+            } else if ("--first".equals(args[i]) && i + 1 < args.length) {
+                PageSelection.first = Integer.parseInt(args[++i]);
+            } else if ("--pages".equals(args[i]) && i + 1 < args.length) {
+                PageSelection.parsePages(args[++i]);
+            } else if ("--stride".equals(args[i]) && i + 1 < args.length) {
+                PageSelection.stride = Integer.parseInt(args[++i]);
+            } else if ("--sample".equals(args[i]) && i + 1 < args.length) {
+                PageSelection.parseSample(args[++i]);
+            } else if ("--max-records".equals(args[i]) && i + 1 < args.length) {
+                PageSelection.maxRecords = Long.parseLong(args[++i]);
+            } else {
+                rest.add(args[i]);
+            }
+        }
+        if (OutputSink.rollBytes > 0 && OutputSink.outputPath == null) {
+            throw new IllegalArgumentException("--roll needs --output");
+        }
+        if (cacheDir != null) ResultCache.instance = new ResultCache(Paths.get(cacheDir), cacheSize);
+        return rest.toArray(new String[0]);
+    }
+
+    /** Writes the remaining output and reports peak memory, cache hits and the metrics, if requested; to be called at the end of a run. */
+    static void finish() throws IOException {
+        OutputSink.finish();
+        DocumentLoader.reportPeakMemory();
+        if (ResultCache.instance != null) {
+            ResultCache.instance.close();
+            System.err.println(ResultCache.instance.summary());
+        }
+        if (metricsFormat == null) return;
+        String text = "json".equals(metricsFormat) ? Metrics.toJson() + "\n" : Metrics.toPrometheus();
+        if (metricsFile == null) System.err.print(text);
+        else Files.write(Paths.get(metricsFile), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,46 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Common entry point of the extractors, so that drivers can run any of them on an opened document.
+ */
+public interface DocumentExtractor {
+
+    void process(PDDocument doc, Writer out) throws IOException;
+
+    Map<String, DocumentExtractor> ALL = registry();
+
+    /** Suffix of the per-file output written next to the PDF or into the output directory. */
+    static String suffix(String name) {
+        return "ImageExtractor2".equals(name) ? ".image" : ".txt";
+    }
+
+    /** The file name of the PDF with its {@code .pdf} extension, in any case, replaced by the suffix. */
+    static String outputName(Path pdf, String suffix) {
+        String name = pdf.getFileName().toString();
+        if (name.toLowerCase().endsWith(".pdf")) name = name.substring(0, name.length() - ".pdf".length());
+        return name + suffix;
+    }
+
+    /** The output next to the PDF, see {@link #outputName}; never the PDF itself. */
+    static Path outputFile(Path pdf, String suffix) throws IOException {
+        Path output = pdf.resolveSibling(outputName(pdf, suffix));
+        if (output.toAbsolutePath().normalize().equals(pdf.toAbsolutePath().normalize())) {
+            throw new IOException(pdf + ": output would overwrite the PDF");
+        }
+        return output;
+    }
+
+    static Map<String, DocumentExtractor> registry() {
+        Map<String, DocumentExtractor> m = new LinkedHashMap<>();
+        m.put("TextDrawExtractor", TextDrawExtractor::process);
+        m.put("ImageExtractor", ImageExtractor::process);
+        m.put("ImageExtractor2", ImageExtractor2::process);
+        return m;
+    }
+}
@@ -0,0 +1,148 @@
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens PDFs for all extractors with the memory policy given on the command line:
+ * <ul>
+ *     <li>{@code --memory default}: {@code PDDocument.load(File)}, unlimited heap scratch</li>
+ *     <li>{@code --memory heap:<size>}: scratch buffers on the heap only, failing beyond {@code size}</li>
+ *     <li>{@code --memory mixed:<size>}: up to {@code size} on the heap, the rest in temp files</li>
+ *     <li>{@code --memory mmap}: the PDF is memory-mapped read-only, scratch as for {@code mixed}</li>
+ * </ul>
+ * {@code --scratch-dir <dir>} sets where temp files go. Sizes take a k, m or g suffix.
+ */
+public final class DocumentLoader {
+    private DocumentLoader() {
+    }
+
+    enum Policy { DEFAULT, HEAP, MIXED, MMAP }
+
+    static final long DEFAULT_MAIN_MEMORY = 64L << 20;
+
+    static Policy policy = Policy.DEFAULT;
+    static long maxMainMemory = DEFAULT_MAIN_MEMORY;
+    static File scratchDir;
+    static boolean configured;
+
+    /** Consumes the memory options from {@code args} and returns the remaining arguments. */
+    public static String[] parseOptions(String[] args) {
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--memory".equals(args[i]) && i + 1 < args.length) {
+                setPolicy(args[++i]);
+                configured = true;
+            } else if ("--scratch-dir".equals(args[i]) && i + 1 < args.length) {
+                scratchDir = new File(args[++i]);
+                configured = true;
+            } else {
+                rest.add(args[i]);
+            }
+        }
+        return rest.toArray(new String[0]);
+    }
+
+    static void setPolicy(String spec) {
+        int colon = spec.indexOf(':');
+        policy = Policy.valueOf((colon < 0 ? spec : spec.substring(0, colon)).toUpperCase());
+        if (colon >= 0) maxMainMemory = parseSize(spec.substring(colon + 1));
+    }
+
+    static long parseSize(String s) {
+        s = s.trim().toLowerCase();
+        char unit = s.charAt(s.length() - 1);
+        int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+        return Long.parseLong(shift == 0 ? s : s.substring(0, s.length() - 1)) << shift;
+    }
+
+    static MemoryUsageSetting memoryUsage() {
+        MemoryUsageSetting setting;
+        switch (policy) {
+            case HEAP: setting = MemoryUsageSetting.setupMainMemoryOnly(maxMainMemory); break;
+            case MIXED: case MMAP: setting = MemoryUsageSetting.setupMixed(maxMainMemory); break;
+            default: setting = MemoryUsageSetting.setupMainMemoryOnly();
+        }
+        if (scratchDir != null) setting.setTempDir(scratchDir);
+        return setting;
+    }
+
+    public static PDDocument load(Path path) throws IOException {
+        return load(path.toFile());
+    }
+
+    public static PDDocument load(File file) throws IOException {
+        if (!Metrics.enabled) return open(file);
+        long start = System.nanoTime();
+        PDDocument doc = open(file);
+        Metrics.documentLoaded(file.getPath(), System.nanoTime() - start);
+        return doc;
+    }
+
+    /** Loads a PDF sent as bytes; the mmap policy buffers it as mixed does. */
+    public static PDDocument load(InputStream input) throws IOException {
+        if (!Metrics.enabled) return PDDocument.load(input, memoryUsage());
+        long start = System.nanoTime();
+        PDDocument doc = PDDocument.load(input, memoryUsage());
+        Metrics.documentLoaded("-", System.nanoTime() - start);
+        return doc;
+    }
+
+    static PDDocument open(File file) throws IOException {
+        if (policy != Policy.MMAP) return PDDocument.load(file, memoryUsage());
+        // same as PDDocument.load(File, ...) but with a mapped source instead of RandomAccessBufferedFileInputStream
+        MappedRandomAccessRead source = new MappedRandomAccessRead(file.toPath());
+        try {
+            ScratchFile scratchFile = new ScratchFile(memoryUsage());
+            try {
+                PDFParser parser = new PDFParser(source, "", null, null, scratchFile);
+                parser.parse();
+                return parser.getPDDocument();
+            } catch (IOException e) {
+                IOUtils.closeQuietly(scratchFile);
+                throw e;
+            }
+        } catch (IOException e) {
+            IOUtils.closeQuietly(source);
+            throw e;
+        }
+    }
+
+    /** Prints the peak resident set size and heap usage to stderr if any memory option was given. */
+    public static void reportPeakMemory() {
+        if (configured) System.err.println(peakMemory());
+    }
+
+    static String peakMemory() {
+        long heap = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == java.lang.management.MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        return String.format("peak RSS %s, peak heap %.1f MB", peakRss(), heap / 1048576.0);
+    }
+
+    static String peakRss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                // VmHWM is the high-water mark of the resident set, in kB
+                if (line.startsWith("VmHWM:")) {
+                    long kb = Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+                    return String.format("%.1f MB", kb / 1024.0);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not on Linux
+        }
+        return "n/a";
+    }
+}
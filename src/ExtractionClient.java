@@ -0,0 +1,148 @@
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Runs an extractor in a running {@link ExtractionServer} with the same arguments and outputs as running it
+ * directly: {@code java ExtractionClient TextDrawExtractor a.pdf} prints what {@code java TextDrawExtractor a.pdf}
+ * prints. PDFs are read by the server from their absolute path, or sent in the request with {@code --upload}
+ * when the server cannot see the files. Exits with status 1 if any file failed.
+ */
+public class ExtractionClient {
+    final int port;
+    final boolean upload;
+    boolean failed;
+
+    ExtractionClient(int port, boolean upload) {
+        this.port = port;
+        this.upload = upload;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = ExtractionServer.DEFAULT_PORT;
+        boolean upload = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--upload": upload = true; break;
+                default: usage(); return;
+            }
+        }
+        if (args.length - i < 2) {
+            usage();
+            return;
+        }
+        ExtractionClient client = new ExtractionClient(port, upload);
+        String command = args[i++];
+        try (OutputStream stdout = new FilterOutputStream(System.out) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }) {
+            switch (command) {
+                case "TextDrawExtractor":
+                case "ImageExtractor":
+                    for (Path pdf : client.files(args, i, true)) client.extract(pdf, "extractor=" + command, stdout);
+                    break;
+                case "ImageExtractor2":
+                    for (Path pdf : client.files(args, i, true)) {
+                        try (OutputStream out = new FileOutputStream(DocumentExtractor.outputFile(pdf, ".image").toFile())) {
+                            client.extract(pdf, "extractor=ImageExtractor2", out);
+                        }
+                    }
+                    break;
+                case "TextByAreaExtractor":
+                    String regions = "&regions=" + URLEncoder.encode(Paths.get(args[i++]).toAbsolutePath().toString(), "UTF-8");
+                    for (Path pdf : client.files(args, i, true)) client.extract(pdf, "extractor=TextByAreaExtractor" + regions, stdout);
+                    break;
+                case "PDFReader":
+                    String mode = args.length - i == 2 ? args[i++] : null;
+                    if ("--tokens".equals(mode) || "--profile".equals(mode)) {
+                        // the server profiles one document per request, so a directory gets one profile per file
+                        for (Path pdf : client.files(args, i, false)) client.extract(pdf, "extractor=PDFReader&mode=" + mode.substring(2), stdout);
+                    } else if (mode == null) {
+                        for (Path pdf : client.files(args, i, false)) {
+                            try (OutputStream out = new FileOutputStream(pdf.getFileName() + ".txt")) {
+                                client.extract(pdf, "extractor=TextDrawExtractor", out);
+                            }
+                        }
+                    } else {
+                        usage();
+                        return;
+                    }
+                    break;
+                default:
+                    usage();
+                    return;
+            }
+        }
+        if (client.failed) System.exit(1);
+    }
+
+    static void usage() {
+        System.err.println("Usage: java ExtractionClient [--port port] [--upload] <TextDrawExtractor|ImageExtractor|ImageExtractor2|TextByAreaExtractor regions|PDFReader [--tokens|--profile]> <pdf | directory>...");
+    }
+
+    /** The PDFs named from {@code args[from]} on, walking directories as the extractor itself does. */
+    List<Path> files(String[] args, int from, boolean recursive) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int i = from; i < args.length; i++) {
+            Path p = Paths.get(args[i]);
+            if (Files.isDirectory(p)) {
+                Files.walkFileTree(p, EnumSet.noneOf(FileVisitOption.class), recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile() && file.toString().endsWith(".pdf")) files.add(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else {
+                files.add(p);
+            }
+        }
+        return files;
+    }
+
+    /** Copies the output of one document to {@code out}; a failure is reported and the next file goes on. */
+    void extract(Path pdf, String query, OutputStream out) throws IOException {
+        if (!upload) query += "&path=" + URLEncoder.encode(pdf.toAbsolutePath().toString(), "UTF-8");
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/extract?" + query).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try {
+            if (upload) {
+                connection.setFixedLengthStreamingMode(Files.size(pdf));
+                try (OutputStream body = connection.getOutputStream()) {
+                    Files.copy(pdf, body);
+                }
+            } else {
+                connection.setFixedLengthStreamingMode(0);
+                connection.getOutputStream().close();
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                failed = true;
+                try (BufferedReader error = new BufferedReader(new InputStreamReader(connection.getErrorStream(), "UTF-8"))) {
+                    System.err.println(pdf + ": " + error.readLine());
+                }
+                return;
+            }
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[1 << 16];
+                int n;
+                while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // a connection dropped mid-response means the extraction failed after some output
+            failed = true;
+            System.err.println(pdf + ": " + e);
+        }
+    }
+}
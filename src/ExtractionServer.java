@@ -0,0 +1,195 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a JVM with PDFBox loaded and serves the extractors over HTTP on localhost, so that small PDFs do not
+ * pay for JVM startup, class loading and the font cache on every run. {@link ExtractionClient} is the command
+ * line front end.
+ *
+ * {@code POST /extract?extractor=<name>} with {@code path=<pdf>} to read a file on this machine, or with the PDF
+ * as the request body. PDFReader takes {@code mode=tokens|profile} and TextByAreaExtractor {@code regions=<file>}.
+ * The output is streamed back as it is written; a failure after the first byte closes the connection without
+ * ending the response, so the client sees a truncated stream rather than partial output that looks complete.
+ * At most {@code -t} requests run at a time, the others wait.
+ */
+public class ExtractionServer {
+    static final int DEFAULT_PORT = 7117;
+
+    public static void main(String[] args) throws IOException {
+        args = CommonOptions.parse(args);
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-p": case "--port": port = Integer.parseInt(args[++i]); break;
+                case "-t": case "--threads": threads = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Usage: java ExtractionServer [-p port] [-t threads] [--memory policy] [--scratch-dir dir] [--metrics json|prometheus[:file]]");
+                    return;
+            }
+        }
+        // loads the standard 14 fonts and the font mapper before the first request
+        PDType1Font.HELVETICA.getName();
+        ExtractionServer server = new ExtractionServer(port, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                CommonOptions.finish();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }));
+        server.http.start();
+        System.err.println("listening on " + server.http.getAddress());
+    }
+
+    interface Extraction {
+        void run(PDDocument doc, String source, Writer out) throws IOException;
+    }
+
+    final HttpServer http;
+    final ExecutorService pool;
+
+    ExtractionServer(int port, int threads) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // requests beyond the limit wait in the executor's queue
+        pool = Executors.newFixedThreadPool(threads);
+        http.setExecutor(pool);
+        http.createContext("/extract", this::extract);
+        http.createContext("/health", exchange -> {
+            byte[] ok = "ok\n".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, ok.length);
+            exchange.getResponseBody().write(ok);
+            exchange.close();
+        });
+    }
+
+    void stop() {
+        http.stop(1);
+        pool.shutdown();
+        try {
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void extract(HttpExchange exchange) throws IOException {
+        ResponseStream body = new ResponseStream(exchange);
+        try {
+            Map<String, String> params = query(exchange.getRequestURI().getRawQuery());
+            Extraction extraction = extraction(params);
+            String path = params.get("path");
+            try (PDDocument doc = path != null ? DocumentLoader.load(Paths.get(path)) : DocumentLoader.load(exchange.getRequestBody())) {
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                Writer w = Metrics.wrap(new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8)));
+                extraction.run(doc, path != null ? path : "-", w);
+                w.flush();
+            }
+        } catch (Exception e) {
+            if (body.started) {
+                // the status is already sent; let the server drop the connection mid-response
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            int status = e instanceof IllegalArgumentException || e instanceof FileNotFoundException ? 400 : 500;
+            byte[] message = (e + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, message.length);
+            exchange.getResponseBody().write(message);
+        }
+        body.close();
+        exchange.close();
+    }
+
+    static Extraction extraction(Map<String, String> params) throws IOException {
+        String name = params.get("extractor");
+        if ("PDFReader".equals(name)) {
+            String mode = params.getOrDefault("mode", "tokens");
+            if ("tokens".equals(mode)) return (doc, source, w) -> PDFReader.process(doc, w, null, source);
+            if ("profile".equals(mode)) {
+                return (doc, source, w) -> {
+                    PDFReader.Profile profile = new PDFReader.Profile();
+                    PDFReader.process(doc, null, profile, source);
+                    profile.write(w);
+                };
+            }
+            throw new IllegalArgumentException("mode must be tokens or profile: " + mode);
+        }
+        if ("TextByAreaExtractor".equals(name)) {
+            String regions = params.get("regions");
+            if (regions == null) throw new IllegalArgumentException("TextByAreaExtractor needs regions=<file>");
+            List<TextByAreaExtractor.Region> parsed = TextByAreaExtractor.parseRegions(Paths.get(regions));
+            return (doc, source, w) -> new TextByAreaExtractor(parsed).process(doc, source, w);
+        }
+        DocumentExtractor extractor = DocumentExtractor.ALL.get(name);
+        if (extractor == null) throw new IllegalArgumentException("unknown extractor: " + name);
+        return (doc, source, w) -> extractor.process(doc, w);
+    }
+
+    static Map<String, String> query(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    /** Sends the headers of a streamed (chunked) response on the first write. */
+    static class ResponseStream extends OutputStream {
+        final HttpExchange exchange;
+        OutputStream out;
+        boolean started;
+
+        ResponseStream(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        OutputStream out() throws IOException {
+            if (!started) {
+                started = true;
+                exchange.sendResponseHeaders(200, 0);
+                out = exchange.getResponseBody();
+            }
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (started) out.flush();
+        }
+
+        /** Ends the response, which is still sent if nothing was written. */
+        @Override
+        public void close() throws IOException {
+            if (!started && exchange.getResponseCode() < 0) out();
+            if (started) out.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.fontbox.util.BoundingBox;
+import org.apache.pdfbox.pdmodel.font.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Font-level values that {@link TextDrawExtractor#showFontGlyph} needs for every glyph, resolved once per font
+ * with the same float operations as LegacyPDFStreamEngine.showGlyph, and shared by all pages and threads.
+ */
+final class FontMetrics {
+    /** Weak keys so that fonts of finished documents can be collected. */
+    private static final Map<PDFont, FontMetrics> FONTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Callers should keep the result while the font does not change, to skip the lookup per glyph. */
+    static FontMetrics forFont(PDFont font) throws IOException {
+        FontMetrics metrics = FONTS.get(font);
+        if (metrics == null) {
+            // computed outside the lock; a race only means the values are computed twice
+            metrics = new FontMetrics(font);
+            FONTS.putIfAbsent(font, metrics);
+        }
+        return metrics;
+    }
+
+    /** Glyph height in text space: half the bounding box, or the cap height if smaller. */
+    final float height;
+    final boolean vertical;
+    /** Factor from the width in glyph space to the displacement of vertical fonts, 1 if not TrueType. */
+    final float verticalScale;
+    /** Width of a space in text space, falling back to 80% of the average width, or 1. */
+    final float spaceWidth;
+
+    private FontMetrics(PDFont font) throws IOException {
+        BoundingBox bbox = font.getBoundingBox();
+        if (bbox.getLowerLeftY() < -32768.0F) {
+            bbox.setLowerLeftY(-(bbox.getLowerLeftY() + 65536.0F));
+        }
+
+        float glyphHeight = bbox.getHeight() / 2.0F;
+        PDFontDescriptor fontDescriptor = font.getFontDescriptor();
+        if (fontDescriptor != null) {
+            float capHeight = fontDescriptor.getCapHeight();
+            if (capHeight != 0.0F && (capHeight < glyphHeight || glyphHeight == 0.0F)) {
+                glyphHeight = capHeight;
+            }
+        }
+        height = glyphHeight / 1000.0F;
+
+        vertical = font.isVertical();
+        float scale = 1.0F;
+        if (vertical) {
+            TrueTypeFont ttf = null;
+            if (font instanceof PDTrueTypeFont) {
+                ttf = ((PDTrueTypeFont) font).getTrueTypeFont();
+            } else if (font instanceof PDType0Font) {
+                PDCIDFont cidFont = ((PDType0Font) font).getDescendantFont();
+                if (cidFont instanceof PDCIDFontType2) {
+                    ttf = ((PDCIDFontType2) cidFont).getTrueTypeFont();
+                }
+            }
+            if (ttf != null && ttf.getUnitsPerEm() != 1000) {
+                scale = 1000.0F / (float) ttf.getUnitsPerEm();
+            }
+        }
+        verticalScale = scale;
+
+        float glyphSpaceToTextSpaceFactor = 0.001F;
+        if (font instanceof PDType3Font) {
+            glyphSpaceToTextSpaceFactor = font.getFontMatrix().getScaleX();
+        }
+        float spaceWidthText = 0.0F;
+        try {
+            spaceWidthText = font.getSpaceWidth() * glyphSpaceToTextSpaceFactor;
+        } catch (Throwable e) {
+            //LOG.warn(e, e);
+        }
+        if (spaceWidthText == 0.0F) {
+            spaceWidthText = font.getAverageFontWidth() * glyphSpaceToTextSpaceFactor;
+            spaceWidthText *= 0.8F;
+        }
+        if (spaceWidthText == 0.0F) spaceWidthText = 1.0F;
+        spaceWidth = spaceWidthText;
+    }
+}
@@ -0,0 +1,93 @@
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Operators of the Form XObjects of one document, parsed once and replayed on every later use, so headers,
+ * footers and logos repeated on each page are not parsed again.
+ *
+ * The operators are interpreted again on replay rather than replaying recorded output through the CTM, since
+ * composing the matrices in another order would change the float rounding of the output. Engines that ignore
+ * most operators only keep the ones they handle. Forms stop being recorded once the document's cache reaches
+ * {@link #maxBytes} ({@code --form-cache <size>}, 0 to disable).
+ */
+final class FormCache {
+    static long maxBytes = 32L << 20;
+
+    interface OperatorProcessor {
+        void process(Operator operator, List<COSBase> operands) throws IOException;
+    }
+
+    static final class Op {
+        final Operator operator;
+        final List<COSBase> operands;
+
+        Op(Operator operator, List<COSBase> operands) {
+            this.operator = operator;
+            this.operands = operands;
+        }
+    }
+
+    /** Operators that the engine does anything with, or null for all. */
+    final Set<String> keep;
+    final Map<COSStream, List<Op>> forms = new IdentityHashMap<>();
+    long bytes;
+
+    FormCache(Set<String> keep) {
+        this.keep = keep;
+    }
+
+    /** Processes the operators of the form, as PDFStreamEngine.processStreamOperators does. */
+    void process(PDFormXObject form, OperatorProcessor processor) throws IOException {
+        List<Op> ops = forms.get(form.getCOSObject());
+        if (ops != null) {
+            for (Op op : ops) processor.process(op.operator, op.operands);
+            return;
+        }
+        List<Op> recorded = bytes < maxBytes ? new ArrayList<>() : null;
+        long size = 0;
+        List<COSBase> arguments = new ArrayList<>();
+        PDFStreamParser parser = new PDFStreamParser(form);
+        Object token = parser.parseNextToken();
+        while (token != null) {
+            if (token instanceof COSObject) {
+                arguments.add(((COSObject) token).getObject());
+            } else if (token instanceof Operator) {
+                Operator operator = (Operator) token;
+                if (recorded != null && (keep == null || keep.contains(operator.getName()))) {
+                    recorded.add(new Op(operator, arguments));
+                    size += sizeOf(operator, arguments);
+                    if (bytes + size > maxBytes) recorded = null;
+                }
+                processor.process(operator, arguments);
+                arguments = new ArrayList<>();
+            } else {
+                arguments.add((COSBase) token);
+            }
+            token = parser.parseNextToken();
+        }
+        if (recorded != null) {
+            forms.put(form.getCOSObject(), recorded);
+            bytes += size;
+        }
+    }
+
+    /** Rough heap size of a recorded operator. */
+    static long sizeOf(Operator operator, List<COSBase> operands) {
+        long size = 64 + 32 * operands.size();
+        if (operator.getImageData() != null) size += operator.getImageData().length;
+        for (COSBase operand : operands) {
+            if (operand instanceof COSString) size += ((COSString) operand).getBytes().length;
+            else if (operand instanceof COSArray) size += 32 * ((COSArray) operand).size();
+        }
+        return size;
+    }
+}
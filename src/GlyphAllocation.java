@@ -0,0 +1,70 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.Vector;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+
+/**
+ * Reports the heap bytes allocated per glyph by {@link TextDrawExtractor#showFontGlyph}, measured as the
+ * difference between a normal run and a run that skips the glyph callback.
+ */
+public class GlyphAllocation {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java GlyphAllocation <pdf>");
+            return;
+        }
+        try (PDDocument doc = PDDocument.load(Paths.get(args[0]).toFile())) {
+            // warm up so that class loading, font caches and JIT are not counted
+            for (int i = 0; i < 5; i++) {
+                run(doc, true, new GlyphCounter());
+                run(doc, false, new GlyphCounter());
+            }
+            long engine = run(doc, true, new GlyphCounter());
+            GlyphCounter counter = new GlyphCounter();
+            long total = run(doc, false, counter);
+            System.out.println(String.format("glyphs=%d total=%.1f bytes/glyph showFontGlyph=%.1f bytes/glyph",
+                    counter.glyphs, (double) total / counter.glyphs, (double) (total - engine) / counter.glyphs));
+        }
+    }
+
+    static long run(PDDocument doc, boolean skipGlyphs, Writer w) throws IOException {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < doc.getNumberOfPages(); i++) {
+            TextDrawExtractor ext = !skipGlyphs ? new TextDrawExtractor(w, doc.getPage(i), i)
+                    : new TextDrawExtractor(w, doc.getPage(i), i) {
+                @Override
+                public void showFontGlyph(Matrix textRenderingMatrix, PDFont font, int code, String unicode, Vector displacement) { }
+            };
+            ext.processPage(doc.getPage(i));
+        }
+        return bean.getThreadAllocatedBytes(thread) - before;
+    }
+
+    /** Discards the output and counts lines that are not path records. */
+    static class GlyphCounter extends Writer {
+        long glyphs;
+        boolean lineStart = true;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                if (lineStart && cbuf[i] != '[') glyphs++;
+                lineStart = cbuf[i] == '\n';
+            }
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    }
+}
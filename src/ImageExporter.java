@@ -0,0 +1,251 @@
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the images drawn by {@link ImageExtractor} to a directory, named by the SHA-256 of what they are made
+ * of, so an image is written once per corpus however often it is drawn.
+ *
+ * JPEG and JPEG 2000 streams are copied as they are stored (after any filters in front of them), without
+ * decoding, and named by those bytes; their SMask and Decode array are not applied. Other images are named by
+ * their stream and its whole dictionary, with the colour space, palette, masks and decode parameters it refers
+ * to, decoded on the walking thread, since the document cannot be shared, and encoded to PNG on a worker pool.
+ */
+final class ImageExporter implements Closeable {
+    static final List<String> PASSTHROUGH = Arrays.asList(COSName.DCT_DECODE.getName(), COSName.JPX_DECODE.getName());
+
+    final Path dir;
+    final ExecutorService pool;
+    /** Bounds the decoded images waiting for the pool. */
+    final Semaphore pending;
+    /** File names by content hash, across documents, completed once the file is written (null if it failed). */
+    final Map<String, CompletableFuture<String>> written = new ConcurrentHashMap<>();
+    /** File names by image stream, within the current document. */
+    final Map<COSStream, CompletableFuture<String>> documentImages = new IdentityHashMap<>();
+    final AtomicLong copied = new AtomicLong(), encoded = new AtomicLong(), duplicates = new AtomicLong(), failures = new AtomicLong();
+
+    ImageExporter(Path dir, int threads) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.pending = new Semaphore(2 * threads);
+    }
+
+    /** To be called before each document; image streams are only identical within a document. */
+    void startDocument() {
+        documentImages.clear();
+    }
+
+    /**
+     * Returns the file name the image is written to, completed once the file is there, or with null if it cannot
+     * be decoded or encoded.
+     */
+    CompletableFuture<String> export(PDImageXObject image) throws IOException {
+        COSStream cos = image.getCOSObject();
+        CompletableFuture<String> file = documentImages.get(cos);
+        if (file != null) {
+            duplicates.incrementAndGet();
+            return file;
+        }
+        PDStream stream = image.getStream();
+        List<COSName> filters = stream.getFilters();
+        String passthrough = null;
+        if (filters != null) {
+            for (COSName filter : filters) {
+                if (PASSTHROUGH.contains(filter.getName())) passthrough = filter.getName();
+            }
+        }
+        String hash = hash(stream, passthrough, image);
+        String name = hash + (passthrough == null ? ".png" : COSName.DCT_DECODE.getName().equals(passthrough) ? ".jpg" : ".jp2");
+        file = new CompletableFuture<>();
+        CompletableFuture<String> previous = written.putIfAbsent(hash, file);
+        if (previous != null || Files.exists(dir.resolve(name))) {
+            duplicates.incrementAndGet();
+            if (previous == null) file.complete(name);
+            else file = previous;
+        } else if (passthrough != null) {
+            try (InputStream in = stream.createInputStream(PASSTHROUGH)) {
+                write(name, tmp -> Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING));
+            } catch (IOException | RuntimeException e) {
+                failed(hash, file, name, e);
+                throw e;
+            }
+            copied.incrementAndGet();
+            file.complete(name);
+        } else {
+            BufferedImage decoded;
+            try {
+                decoded = image.getImage();
+            } catch (IOException | RuntimeException e) {
+                failed(hash, file, name, e);
+                return file;
+            }
+            submit(decoded, hash, name, file);
+        }
+        documentImages.put(cos, file);
+        return file;
+    }
+
+    /** Completes the file with null, and lets a later document try the image again. */
+    void failed(String hash, CompletableFuture<String> file, String name, Exception e) {
+        failures.incrementAndGet();
+        written.remove(hash, file);
+        file.complete(null);
+        System.err.println(name + ": " + e);
+    }
+
+    /**
+     * Hash of the stream as it is written for passthrough images, or of the encoded stream and the parameters
+     * needed to decode it otherwise.
+     */
+    static String hash(PDStream stream, String passthrough, PDImageXObject image) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        if (passthrough != null) {
+            try (InputStream in = stream.createInputStream(PASSTHROUGH)) {
+                digest(in, digest);
+            }
+        } else {
+            digest(image.getCOSObject(), digest, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * Digests an object with the objects it refers to, so that two images differing in a palette, an ICC profile,
+     * /Decode, /DecodeParms or a mask get different hashes. Dictionary keys are sorted; {@code path} holds the
+     * objects being digested, to cut reference cycles.
+     */
+    static void digest(COSBase base, MessageDigest digest, Set<COSBase> path) throws IOException {
+        if (base instanceof COSObject) base = ((COSObject) base).getObject();
+        if (base == null || base instanceof COSNull) {
+            update(digest, "null ");
+        } else if (base instanceof COSName) {
+            update(digest, "/" + ((COSName) base).getName() + " ");
+        } else if (base instanceof COSInteger) {
+            update(digest, ((COSInteger) base).longValue() + " ");
+        } else if (base instanceof COSNumber) {
+            update(digest, Float.floatToIntBits(((COSNumber) base).floatValue()) + "f ");
+        } else if (base instanceof COSBoolean) {
+            update(digest, ((COSBoolean) base).getValue() + " ");
+        } else if (base instanceof COSString) {
+            byte[] bytes = ((COSString) base).getBytes();
+            update(digest, "(" + bytes.length + ")");
+            digest.update(bytes);
+        } else if (!path.add(base)) {
+            update(digest, "cycle ");
+        } else {
+            if (base instanceof COSArray) {
+                COSArray array = (COSArray) base;
+                update(digest, "[" + array.size() + " ");
+                for (int i = 0; i < array.size(); i++) digest(array.get(i), digest, path);
+            } else if (base instanceof COSDictionary) {
+                COSDictionary dict = (COSDictionary) base;
+                List<COSName> keys = new ArrayList<>(dict.keySet());
+                keys.remove(COSName.METADATA);
+                Collections.sort(keys);
+                update(digest, "<<" + keys.size() + " ");
+                for (COSName key : keys) {
+                    update(digest, "/" + key.getName() + " ");
+                    digest(dict.getItem(key), digest, path);
+                }
+                if (base instanceof COSStream) {
+                    update(digest, "stream ");
+                    try (InputStream in = ((COSStream) base).createRawInputStream()) {
+                        digest(in, digest);
+                    }
+                }
+            }
+            path.remove(base);
+        }
+    }
+
+    static void update(MessageDigest digest, String token) {
+        digest.update(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void digest(InputStream stream, MessageDigest digest) throws IOException {
+        try (InputStream in = new DigestInputStream(stream, digest)) {
+            byte[] buffer = new byte[1 << 16];
+            while (in.read(buffer) > 0) {
+                // digested
+            }
+        }
+    }
+
+    interface Content {
+        void writeTo(Path file) throws IOException;
+    }
+
+    /** Writes to a temporary file first, so that a file with the name of a hash is always complete. */
+    void write(String name, Content content) throws IOException {
+        Path tmp = Files.createTempFile(dir, name, ".tmp");
+        try {
+            content.writeTo(tmp);
+            Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Encodes the image on the pool and completes {@code file} once it is written. */
+    void submit(BufferedImage image, String hash, String name, CompletableFuture<String> file) throws IOException {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        pool.execute(() -> {
+            try {
+                write(name, tmp -> ImageIO.write(image, "png", tmp.toFile()));
+                encoded.incrementAndGet();
+                file.complete(name);
+            } catch (IOException | RuntimeException e) {
+                failed(hash, file, name, e);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /** Waits for the images still being encoded. */
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    String summary() {
+        return String.format("images: %d copied, %d encoded, %d duplicates, %d failed",
+                copied.get(), encoded.get(), duplicates.get(), failures.get());
+    }
+}
@@ -2,12 +2,22 @@ import java.io.IOException;
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDType3CharProc;
+import org.apache.pdfbox.pdmodel.graphics.form.PDTransparencyGroup;
+import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.graphics.PDXObject;
 import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
@@ -24,8 +34,17 @@ import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
 
 public class ImageExtractor extends PDFStreamEngine {
 
+    /** Set by {@code --export <dir>} to also write the images themselves. */
+    static ImageExporter exporter;
+
     public static void main(String[] args) throws IOException {
-        for (String path: args) {
+        args = CommonOptions.parse(args);
+        int start = 0;
+        if (args.length > 1 && "--export".equals(args[0])) {
+            exporter = new ImageExporter(Paths.get(args[1]), Runtime.getRuntime().availableProcessors());
+            start = 2;
+        }
+        for (String path: Arrays.copyOfRange(args, start, args.length)) {
             Path p = Paths.get(path);
             if (Files.isDirectory(p)) {
                 FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
@@ -42,18 +61,61 @@ public class ImageExtractor extends PDFStreamEngine {
                 processFile(p);
             }
         }
+        if (exporter != null) {
+            exporter.close();
+            System.err.println(exporter.summary());
+        }
+        CommonOptions.finish();
     }
 
     static void processFile(Path path) throws IOException {
-        PDDocument doc = PDDocument.load(path.toFile());
+        ResultCache.Extraction extraction = out -> {
+            try (PDDocument doc = DocumentLoader.load(path)) {
+                process(doc, out);
+                return doc.getNumberOfPages();
+            }
+        };
+        try (Writer w = Metrics.wrap(OutputSink.open())) {
+            // a cached result would skip writing the images
+            if (exporter != null) extraction.run(w);
+            else ResultCache.extract(path, "ImageExtractor", w, extraction);
+        }
+    }
+
+    static void process(PDDocument doc, Writer w) throws IOException {
+        process(doc, new TsvRecordSink(w));
+    }
+
+    static void process(PDDocument doc, RecordSink sink) throws IOException {
         ImageExtractor ie = new ImageExtractor();
-        ie.output = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+        ie.sink = PageSelection.limit(sink);
         ie.process(doc);
-        ie.output.close();
     }
 
     int pageNo;
-    Writer output;
+    int imageCount;
+    RecordSink sink;
+    /** Only these operators do anything here; forms are replayed without the others. */
+    static final Set<String> OPERATORS = new HashSet<>(Arrays.asList("cm", "Do", "gs", "q", "Q", "Tm"));
+    FormCache formCache = new FormCache(OPERATORS);
+    PDResources formResources;
+    Matrix formInitialMatrix;
+    Limits limits = new Limits();
+    /** Images of the page being exported, written to the sink at the end of the page, once their files are. */
+    final List<Exported> exported = new ArrayList<>();
+
+    static final class Exported {
+        final float x, y, width, height;
+        final CompletableFuture<String> file;
+
+        Exported(float x, float y, float width, float height, CompletableFuture<String> file) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.file = file;
+        }
+    }
 
     public ImageExtractor() throws IOException {
         addOperator(new Concatenate());
@@ -65,15 +127,101 @@ public class ImageExtractor extends PDFStreamEngine {
     }
 
     public void process(PDDocument doc) throws IOException {
+        if (exporter != null) exporter.startDocument();
+        limits = new Limits();
         pageNo = 1;
-        for (PDPage page : doc.getPages()) {
-            processPage(page);
-            pageNo++;
+        try {
+            for (PDPage page : doc.getPages()) {
+                if (PageSelection.includes(pageNo)) processPage(page);
+                pageNo++;
+            }
+        } catch (Limits.Exceeded e) {
+            // the document is over its time limit; the page has its marker
+        } catch (RecordSink.Stop e) {
+            // --max-records reached
         }
+        limits.finish();
+    }
+
+    @Override
+    public void processPage(PDPage page) throws IOException {
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        imageCount = 0;
+        // left over if the previous page was cut short inside a form
+        formResources = null;
+        formInitialMatrix = null;
+        exported.clear();
+        limits.startPage();
+        sink.startPage(pageNo);
+        try {
+            super.processPage(page);
+            writeExported();
+            sink.endPage(pageNo);
+        } catch (Limits.Exceeded e) {
+            writeExported();
+            limits.partialPage();
+            sink.partial(pageNo, e.getMessage());
+            sink.endPage(pageNo);
+            if (e.document) throw e;
+        } finally {
+            if (Metrics.enabled) Metrics.page(pageNo, System.nanoTime() - start, 0, 0, imageCount);
+        }
+    }
+
+    /** Waits for the files of the exported images, so that only files that exist are named. */
+    void writeExported() throws IOException {
+        for (Exported image : exported) sink.image(pageNo, image.x, image.y, image.width, image.height, image.file.join());
+        exported.clear();
+    }
+
+    @Override
+    public void showForm(PDFormXObject form) throws IOException {
+        showForm(form, true);
+    }
+
+    @Override
+    public void showTransparencyGroup(PDTransparencyGroup group) throws IOException {
+        showForm(group, false);
+    }
+
+    /** As PDFStreamEngine.processStream, with the operators of the form from {@link #formCache}. */
+    void showForm(PDFormXObject form, boolean setInitialMatrix) throws IOException {
+        PDResources parentResources = formResources;
+        Matrix parentMatrix = formInitialMatrix;
+        formResources = form.getResources() != null ? form.getResources() : getResources();
+        Stack<PDGraphicsState> savedStack = saveGraphicsStack();
+        Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+        ctm.concatenate(form.getMatrix());
+        if (setInitialMatrix) formInitialMatrix = ctm.clone();
+        if (form.getBBox() != null) getGraphicsState().intersectClippingPath(form.getBBox().transform(ctm));
+        formCache.process(form, this::processOperator);
+        restoreGraphicsStack(savedStack);
+        formInitialMatrix = parentMatrix;
+        formResources = parentResources;
+    }
+
+    @Override
+    protected void processType3Stream(PDType3CharProc charProc, Matrix textRenderingMatrix) throws IOException {
+        // PDFStreamEngine sets the resources of the glyph itself
+        PDResources parentResources = formResources;
+        formResources = null;
+        super.processType3Stream(charProc, textRenderingMatrix);
+        formResources = parentResources;
+    }
+
+    @Override
+    public PDResources getResources() {
+        return formResources != null ? formResources : super.getResources();
+    }
+
+    @Override
+    public Matrix getInitialMatrix() {
+        return formInitialMatrix != null ? formInitialMatrix : super.getInitialMatrix();
     }
 
     @Override
     protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+        limits.operator();
         String operation = operator.getName();
         if("Do".equals(operation)) {
             COSName objectName = (COSName)operands.get(0);
@@ -81,8 +229,7 @@ public class ImageExtractor extends PDFStreamEngine {
 
             if (xobject instanceof PDImageXObject) {
                 PDImageXObject image = (PDImageXObject)xobject;
-                output.write(String.valueOf(pageNo)); output.write("\t");
-
+                imageCount++;
                 Matrix ctmNew = getGraphicsState().getCurrentTransformationMatrix();
                 PDRectangle pageRect = this.getCurrentPage().getCropBox();
                 float x = ctmNew.getTranslateX();
@@ -90,8 +237,8 @@ public class ImageExtractor extends PDFStreamEngine {
                 float w = ctmNew.getScalingFactorX();
                 float h = ctmNew.getScalingFactorY();
                 y = pageRect.getHeight() - y - h;
-                output.write(x + "\t" + y + "\t" + w + "\t" + h);
-                output.write("\n");
+                if (exporter != null) exported.add(new Exported(x, y, w, h, exporter.export(image)));
+                else sink.image(pageNo, x, y, w, h, null);
             }
             else if(xobject instanceof PDFormXObject) {
                 PDFormXObject form = (PDFormXObject)xobject;
@@ -2,15 +2,23 @@ import java.io.IOException;
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.Stack;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDType3CharProc;
+import org.apache.pdfbox.pdmodel.graphics.form.PDTransparencyGroup;
+import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
 import org.apache.pdfbox.pdmodel.graphics.PDXObject;
 import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
@@ -26,6 +34,7 @@ import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
 
 public class ImageExtractor2 extends PDFStreamEngine {
     public static void main(String[] args) throws IOException {
+        args = CommonOptions.parse(args);
         for (String path: args) {
             Path p = Paths.get(path);
             if (Files.isDirectory(p)) {
@@ -43,26 +52,50 @@ public class ImageExtractor2 extends PDFStreamEngine {
                 processFile(p);
             }
         }
+        CommonOptions.finish();
     }
 
     static void processFile(Path path) throws IOException {
-        PDDocument doc = PDDocument.load(path.toFile());
-        String outPath = path.toString().replace(".pdf", ".image");
+        Path outPath = DocumentExtractor.outputFile(path, ".image");
+        if (ResultCache.current(path, "ImageExtractor2", outPath) >= 0) return;
+        try (Writer w = Metrics.wrap(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outPath.toFile()), "UTF-8")))) {
+            ResultCache.extract(path, "ImageExtractor2", w, out -> {
+                try (PDDocument doc = DocumentLoader.load(path)) {
+                    process(doc, out);
+                    return doc.getNumberOfPages();
+                }
+            });
+        }
+    }
+
+    static void process(PDDocument doc, Writer w) throws IOException {
+        process(doc, new TsvRecordSink(w));
+    }
+
+    /** The images are known only once the last page is done, so they all come at the end. */
+    static void process(PDDocument doc, RecordSink sink) throws IOException {
         ImageExtractor2 ie = new ImageExtractor2();
-        ie.output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outPath), "UTF-8"));
+        ie.sink = PageSelection.limit(sink);
         ie.process(doc);
-        ie.output.close();
     }
 
     static void countFile(Path path) throws IOException {
-        PDDocument doc = PDDocument.load(path.toFile());
-        ImageExtractor2 ie = new ImageExtractor2();
-        ie.process(doc);
-        ie.output.close();
+        try (PDDocument doc = DocumentLoader.load(path)) {
+            ImageExtractor2 ie = new ImageExtractor2();
+            ie.sink = new RecordSink() { };
+            ie.process(doc);
+        }
     }
 
     int pageNo;
-    Writer output;
+    int imageCount;
+    RecordSink sink;
+    /** Only these operators do anything here; forms are replayed without the others. */
+    static final Set<String> OPERATORS = new HashSet<>(Arrays.asList("cm", "Do", "gs", "q", "Q", "Tm"));
+    FormCache formCache = new FormCache(OPERATORS);
+    PDResources formResources;
+    Matrix formInitialMatrix;
+    Limits limits = new Limits();
     ArrayList<Position> positions = new ArrayList<>();
 
     public ImageExtractor2() throws IOException {
@@ -74,7 +107,7 @@ public class ImageExtractor2 extends PDFStreamEngine {
         addOperator(new SetMatrix());
     }
 
-    class Position {
+    static class Position {
         int pageNum;
         float x, y, width, height;
         Position (int pageNum, float x, float y, float width, float height) {
@@ -83,94 +116,301 @@ public class ImageExtractor2 extends PDFStreamEngine {
     }
 
     public void process(PDDocument doc) throws IOException {
+        SameCoordinateFilter sameCoordinate = new SameCoordinateFilter();
+        limits = new Limits();
+        List<Limits.Exceeded> partial = new ArrayList<>();
+        List<Integer> partialPages = new ArrayList<>();
         pageNo = 1;
         for (PDPage page : doc.getPages()) {
-            processPage(page);
+            if (!PageSelection.includes(pageNo)) {
+                pageNo++;
+                continue;
+            }
+            Limits.Exceeded exceeded = null;
+            try {
+                processPage(page);
+            } catch (Limits.Exceeded e) {
+                // the images found before the limit are kept
+                exceeded = e;
+                limits.partialPage();
+                partial.add(e);
+                partialPages.add(pageNo);
+            }
+
+            // filter adjacent images, then small images, as soon as the page is done
+            for (Position pos : filterAdjacent(positions)) {
+                if (!(pos.width < 50 || pos.height < 50)) {
+                    sameCoordinate.accept(pos);
+                }
+            }
+            positions.clear();
             pageNo++;
+            if (exceeded != null && exceeded.document) break;
         }
 
-        // filter adjacent images
-        ArrayList<Position> positions_tmp = new ArrayList<>();
-        LinkedHashMap<Position, Boolean> adjflgDict = new LinkedHashMap<>();
-
-        // debug
-        for (Position pos :positions) adjflgDict.put(pos, false);
-
-        for (Position pos :positions) {
-            if (adjflgDict.get(pos)) continue;
-
-            boolean isAdjacent = false;
-            for (Position pos_cmp :positions) {
-                boolean same_page = pos.pageNum == pos_cmp.pageNum;
-                if (!same_page) continue;
-
-                boolean same_x = pos.x == pos_cmp.x;
-                boolean same_y = pos.y == pos_cmp.y;
-                boolean same_w = pos.width == pos_cmp.width;
-                boolean same_h = pos.height == pos_cmp.height;
-                if (same_x && same_y && same_w && same_h) continue;
-
-                float threshold = 2;
-                boolean near_bottom = 0 < pos.y - (pos_cmp.y + pos_cmp.height) && pos.y - (pos_cmp.y + pos_cmp.height) < threshold;
-                boolean near_top = 0 < (pos.y + pos.height) - pos_cmp.y && (pos.y + pos.height) - pos_cmp.y < threshold;
-                boolean near_right = 0 < (pos.x + pos.width) - pos_cmp.x && (pos.x + pos.width) - pos_cmp.x < threshold;
-                boolean near_left = 0 < pos.x - (pos_cmp.x + pos_cmp.width) && pos.x - (pos_cmp.x + pos_cmp.width) < threshold;
-                isAdjacent = ((same_x && (near_bottom || near_top)) || (same_y && (near_left || near_right)));
-                if (isAdjacent) {
-                    adjflgDict.put(pos, true);
-                    adjflgDict.put(pos_cmp, true);
-                    break;
-                }
+        // filter same coordinate; an image can be dropped by any later page, so this waits for the last one
+        try {
+            for (Position pos : sameCoordinate.result()) sink.image(pos.pageNum, pos.x, pos.y, pos.width, pos.height, null);
+            for (int i = 0; i < partial.size(); i++) sink.partial(partialPages.get(i), partial.get(i).getMessage());
+        } catch (RecordSink.Stop e) {
+            // --max-records reached
+        }
+        limits.finish();
+    }
+
+    static final float ADJACENT_THRESHOLD = 2;
+
+    /** Same test as the pairwise scan this replaces; directional, like the original. */
+    static boolean isAdjacent(Position pos, Position pos_cmp) {
+        boolean same_x = pos.x == pos_cmp.x;
+        boolean same_y = pos.y == pos_cmp.y;
+        float threshold = ADJACENT_THRESHOLD;
+        boolean near_bottom = 0 < pos.y - (pos_cmp.y + pos_cmp.height) && pos.y - (pos_cmp.y + pos_cmp.height) < threshold;
+        boolean near_top = 0 < (pos.y + pos.height) - pos_cmp.y && (pos.y + pos.height) - pos_cmp.y < threshold;
+        boolean near_right = 0 < (pos.x + pos.width) - pos_cmp.x && (pos.x + pos.width) - pos_cmp.x < threshold;
+        boolean near_left = 0 < pos.x - (pos_cmp.x + pos_cmp.width) && pos.x - (pos_cmp.x + pos_cmp.width) < threshold;
+        return (same_x && (near_bottom || near_top)) || (same_y && (near_left || near_right));
+    }
+
+    static boolean sameLocation(Position a, Position b) {
+        return a.x == b.x && a.y == b.y && a.width == b.width && a.height == b.height;
+    }
+
+    /**
+     * Drops the images of one page that touch another image, with the same result as scanning all pairs in order:
+     * each image not flagged yet flags itself and the first image (in drawing order) it is adjacent to.
+     * Candidates are looked up in buckets of images with the same x (or y), sorted along the other axis.
+     */
+    static List<Position> filterAdjacent(List<Position> page) {
+        int n = page.size();
+        Map<Integer, AxisBucket> columns = new HashMap<>(), rows = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Position pos = page.get(i);
+            if (!Float.isNaN(pos.x)) columns.computeIfAbsent(floatKey(pos.x), k -> new AxisBucket()).add(i);
+            if (!Float.isNaN(pos.y)) rows.computeIfAbsent(floatKey(pos.y), k -> new AxisBucket()).add(i);
+        }
+        for (AxisBucket b : columns.values()) b.sort(page, true);
+        for (AxisBucket b : rows.values()) b.sort(page, false);
+
+        boolean[] adjacent = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (adjacent[i]) continue;
+            Position pos = page.get(i);
+            int first = Integer.MAX_VALUE;
+            AxisBucket column = Float.isNaN(pos.x) ? null : columns.get(floatKey(pos.x));
+            if (column != null) first = column.firstAdjacent(page, pos, pos.y, pos.y + pos.height, first);
+            AxisBucket row = Float.isNaN(pos.y) ? null : rows.get(floatKey(pos.y));
+            if (row != null) first = row.firstAdjacent(page, pos, pos.x, pos.x + pos.width, first);
+            if (first != Integer.MAX_VALUE) {
+                adjacent[i] = true;
+                adjacent[first] = true;
             }
         }
-        for (Position key :adjflgDict.keySet()) {
-            if (!adjflgDict.get(key)) positions_tmp.add(key);
+        List<Position> result = new ArrayList<>();
+        for (int i = 0; i < n; i++) if (!adjacent[i]) result.add(page.get(i));
+        return result;
+    }
+
+    /** Hash key that is equal exactly when the floats are ==, for non-NaN values. */
+    static int floatKey(float v) {
+        return Float.floatToIntBits(v + 0.0f); // folds -0.0 into 0.0
+    }
+
+    /** Indices of the images in one row or column, sorted by their start and by their end along the other axis. */
+    static class AxisBucket {
+        int[] indices = new int[4];
+        int size;
+        int[] byStart, byEnd;
+        float[] starts, ends;
+
+        void add(int i) {
+            if (size == indices.length) indices = Arrays.copyOf(indices, size * 2);
+            indices[size++] = i;
+        }
+
+        void sort(List<Position> page, boolean vertical) {
+            byStart = sortedBy(page, vertical, false);
+            byEnd = sortedBy(page, vertical, true);
+            starts = keys(page, byStart, vertical, false);
+            ends = keys(page, byEnd, vertical, true);
         }
-        positions = positions_tmp;
 
-        // filter small image
-        positions_tmp = new ArrayList<>();
-        for (Position pos :positions) {
-            if (!(pos.width < 50 || pos.height < 50)) {
-                positions_tmp.add(pos);
+        static float key(Position p, boolean vertical, boolean end) {
+            float start = vertical ? p.y : p.x;
+            return end ? start + (vertical ? p.height : p.width) : start;
+        }
+
+        int[] sortedBy(List<Position> page, boolean vertical, boolean end) {
+            return Arrays.stream(indices, 0, size).boxed()
+                    .filter(i -> !Float.isNaN(key(page.get(i), vertical, end)))
+                    .sorted((a, b) -> Float.compare(key(page.get(a), vertical, end), key(page.get(b), vertical, end)))
+                    .mapToInt(Integer::intValue).toArray();
+        }
+
+        static float[] keys(List<Position> page, int[] sorted, boolean vertical, boolean end) {
+            float[] keys = new float[sorted.length];
+            for (int i = 0; i < sorted.length; i++) keys[i] = key(page.get(sorted[i]), vertical, end);
+            return keys;
+        }
+
+        /**
+         * Smallest index below {@code first} of an image adjacent to {@code pos} along this bucket's axis, where
+         * {@code start} and {@code end} are the extent of {@code pos} on that axis.
+         * The gaps {@code end - other.start} and {@code start - other.end} shrink as the sorted keys grow, so the
+         * images within the threshold are a contiguous range of each sorted array.
+         */
+        int firstAdjacent(List<Position> page, Position pos, float start, float end, int first) {
+            first = scan(page, pos, byStart, starts, end, first);
+            return scan(page, pos, byEnd, ends, start, first);
+        }
+
+        static int scan(List<Position> page, Position pos, int[] sorted, float[] keys, float edge, int first) {
+            // first key with edge - key < threshold, then walk while edge - key > 0
+            int lo = 0, hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (edge - keys[mid] < ADJACENT_THRESHOLD) hi = mid; else lo = mid + 1;
             }
+            for (int k = lo; k < keys.length && 0 < edge - keys[k]; k++) {
+                int i = sorted[k];
+                Position cmp = page.get(i);
+                if (i < first && !sameLocation(pos, cmp) && isAdjacent(pos, cmp)) first = i;
+            }
+            return first;
         }
-        positions = positions_tmp;
+    }
 
-        // filter same coordinate
-        positions_tmp = new ArrayList<>();
-        LinkedHashMap<Position, Boolean> sameposflgDict = new LinkedHashMap<>();
-        for (Position pos :positions) {sameposflgDict.put(pos, false);}
-        for (Position pos :positions) {
-            if (sameposflgDict.get(pos)) continue;
+    /**
+     * Drops images that have the same coordinates as an image on another page, fed one page at a time.
+     * It keeps one entry per distinct location and the images still pending output; the images of a location
+     * are discarded as soon as it shows up on a second page.
+     */
+    static class SameCoordinateFilter {
+        static class Location {
+            final int pageNum;
+            int pending;
+            boolean onSeveralPages;
 
-            for (Position pos_cmp :positions) {
-                boolean samePag = pos.pageNum == pos_cmp.pageNum;
-                boolean sameLoc = pos.x == pos_cmp.x && pos.y == pos_cmp.y && pos.width == pos_cmp.width && pos.height == pos_cmp.height;
+            Location(int pageNum) {
+                this.pageNum = pageNum;
+            }
+        }
 
-                if (!samePag && sameLoc) {
-                    sameposflgDict.put(pos, true);
-                    sameposflgDict.put(pos_cmp, true);
-                    break;
-                }
+        final Map<List<Integer>, Location> locations = new HashMap<>();
+        ArrayList<Position> pending = new ArrayList<>();
+        int dropped;
+
+        void accept(Position pos) {
+            List<Integer> key = locationKey(pos);
+            if (key == null) {
+                pending.add(pos);
+                return;
             }
+            Location location = locations.get(key);
+            if (location == null) {
+                location = new Location(pos.pageNum);
+                locations.put(key, location);
+            } else if (location.onSeveralPages) {
+                return;
+            } else if (location.pageNum != pos.pageNum) {
+                location.onSeveralPages = true;
+                dropped += location.pending;
+                location.pending = 0;
+                if (dropped > pending.size() / 2) compact();
+                return;
+            }
+            location.pending++;
+            pending.add(pos);
         }
-        for (Position key :sameposflgDict.keySet()) {
-            if (!sameposflgDict.get(key)) positions_tmp.add(key);
+
+        boolean isKept(Position pos) {
+            List<Integer> key = locationKey(pos);
+            return key == null || !locations.get(key).onSeveralPages;
         }
-        positions = positions_tmp;
 
-        // output
-        for (Position pos :positions) {
-            output.write(String.valueOf(pos.pageNum)); output.write("\t");
-            output.write(pos.x + "\t" + pos.y + "\t");
-            output.write(pos.width + "\t" + pos.height);
-            output.write("\n");
+        void compact() {
+            ArrayList<Position> kept = new ArrayList<>();
+            for (Position pos : pending) if (isKept(pos)) kept.add(pos);
+            pending = kept;
+            dropped = 0;
+        }
+
+        /** The images kept, in the order they were accepted. */
+        List<Position> result() {
+            compact();
+            return pending;
+        }
+    }
+
+    /** Key equal exactly when the positions are at the same location; null for NaN, which never equals. */
+    static List<Integer> locationKey(Position pos) {
+        if (Float.isNaN(pos.x) || Float.isNaN(pos.y) || Float.isNaN(pos.width) || Float.isNaN(pos.height)) return null;
+        return Arrays.asList(floatKey(pos.x), floatKey(pos.y), floatKey(pos.width), floatKey(pos.height));
+    }
+
+    @Override
+    public void processPage(PDPage page) throws IOException {
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        imageCount = 0;
+        // left over if the previous page was cut short inside a form
+        formResources = null;
+        formInitialMatrix = null;
+        limits.startPage();
+        try {
+            super.processPage(page);
+        } finally {
+            if (Metrics.enabled) Metrics.page(pageNo, System.nanoTime() - start, 0, 0, imageCount);
         }
     }
 
+    @Override
+    public void showForm(PDFormXObject form) throws IOException {
+        showForm(form, true);
+    }
+
+    @Override
+    public void showTransparencyGroup(PDTransparencyGroup group) throws IOException {
+        showForm(group, false);
+    }
+
+    /** As PDFStreamEngine.processStream, with the operators of the form from {@link #formCache}. */
+    void showForm(PDFormXObject form, boolean setInitialMatrix) throws IOException {
+        PDResources parentResources = formResources;
+        Matrix parentMatrix = formInitialMatrix;
+        formResources = form.getResources() != null ? form.getResources() : getResources();
+        Stack<PDGraphicsState> savedStack = saveGraphicsStack();
+        Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+        ctm.concatenate(form.getMatrix());
+        if (setInitialMatrix) formInitialMatrix = ctm.clone();
+        if (form.getBBox() != null) getGraphicsState().intersectClippingPath(form.getBBox().transform(ctm));
+        formCache.process(form, this::processOperator);
+        restoreGraphicsStack(savedStack);
+        formInitialMatrix = parentMatrix;
+        formResources = parentResources;
+    }
+
+    @Override
+    protected void processType3Stream(PDType3CharProc charProc, Matrix textRenderingMatrix) throws IOException {
+        // PDFStreamEngine sets the resources of the glyph itself
+        PDResources parentResources = formResources;
+        formResources = null;
+        super.processType3Stream(charProc, textRenderingMatrix);
+        formResources = parentResources;
+    }
+
+    @Override
+    public PDResources getResources() {
+        return formResources != null ? formResources : super.getResources();
+    }
+
+    @Override
+    public Matrix getInitialMatrix() {
+        return formInitialMatrix != null ? formInitialMatrix : super.getInitialMatrix();
+    }
+
     @Override
     protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+        limits.operator();
         String operation = operator.getName();
         if("Do".equals(operation)) {
             COSName objectName = (COSName)operands.get(0);
@@ -178,6 +418,7 @@ public class ImageExtractor2 extends PDFStreamEngine {
 
             if (xobject instanceof PDImageXObject) {
                 PDImageXObject image = (PDImageXObject)xobject;
+                imageCount++;
 
                 Matrix ctmNew = getGraphicsState().getCurrentTransformationMatrix();
                 float x = ctmNew.getTranslateX();
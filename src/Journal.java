@@ -0,0 +1,130 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Append-only progress log of a {@link BatchRunner} shard, one line per finished document:
+ * {@code ok|failed <pages> <nanos> <pdf> <output>}, tab-separated, with tabs, line breaks and backslashes in the
+ * paths escaped. Each line is synced to disk once the output of the document is, so a run restarted with the same
+ * journal skips the documents listed as ok, whenever it was killed; failed ones, e.g. out of memory, are tried
+ * again. A line torn by a crash is ignored. The output path is relative to the directory of the journal when it
+ * is under it, so a copy of that directory can be merged elsewhere.
+ */
+final class Journal implements Closeable {
+
+    static final class Entry {
+        final boolean ok;
+        final int pages;
+        final long nanos;
+        /** Absolute path of the PDF, unescaped. */
+        final String pdf;
+        /** Output of the document as written in the journal, empty if it failed. */
+        final String output;
+
+        Entry(boolean ok, int pages, long nanos, String pdf, String output) {
+            this.ok = ok;
+            this.pages = pages;
+            this.nanos = nanos;
+            this.pdf = pdf;
+            this.output = output;
+        }
+    }
+
+    final Path path;
+    /** PDFs done without failure. */
+    final Set<String> done = new HashSet<>();
+    final FileChannel channel;
+
+    Journal(Path path) throws IOException {
+        this.path = path.toAbsolutePath();
+        for (Entry e : read(path)) {
+            if (e.ok) done.add(e.pdf);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // end a line torn by a crash, so that it is not continued by the next one
+        if (channel.size() > 0 && !endsWithNewline(path)) append("\n");
+    }
+
+    static String key(Path pdf) {
+        return pdf.toAbsolutePath().normalize().toString();
+    }
+
+    synchronized boolean isDone(Path pdf) {
+        return done.contains(key(pdf));
+    }
+
+    synchronized void finished(Path pdf, boolean ok, int pages, long nanos, Path output) throws IOException {
+        String out = "";
+        if (output != null) {
+            Path absolute = output.toAbsolutePath().normalize();
+            out = absolute.startsWith(path.getParent()) ? path.getParent().relativize(absolute).toString() : absolute.toString();
+        }
+        append((ok ? "ok" : "failed") + "\t" + pages + "\t" + nanos + "\t" + escape(key(pdf)) + "\t" + escape(out) + "\n");
+        channel.force(false);
+        if (ok) done.add(key(pdf));
+    }
+
+    /** Escapes the characters that delimit fields and lines, so that any path survives {@link #read}. */
+    static String escape(String path) {
+        return path.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String field) {
+        if (field.indexOf('\\') < 0) return field;
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                c = field.charAt(++i);
+                if (c == 't') c = '\t';
+                else if (c == 'n') c = '\n';
+                else if (c == 'r') c = '\r';
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    void append(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) channel.write(bytes);
+    }
+
+    static boolean endsWithNewline(Path path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            if (file.length() == 0) return true;
+            file.seek(file.length() - 1);
+            return file.read() == '\n';
+        }
+    }
+
+    /** The complete lines of a journal; none if it does not exist. */
+    static List<Entry> read(Path path) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(path)) return entries;
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        int start = 0, end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            String[] f = text.substring(start, end).split("\t", -1);
+            start = end + 1;
+            if (f.length != 5 || !("ok".equals(f[0]) || "failed".equals(f[0]))) continue;
+            try {
+                entries.add(new Entry("ok".equals(f[0]), Integer.parseInt(f[1]), Long.parseLong(f[2]), unescape(f[3]), unescape(f[4])));
+            } catch (NumberFormatException e) {
+                // torn line
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
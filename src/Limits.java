@@ -0,0 +1,81 @@
+/**
+ * Wall-clock and operator limits of one document: {@code --doc-timeout <seconds>}, {@code --page-timeout <seconds>}
+ * and {@code --max-operators <count>} per page, none by default.
+ *
+ * The engines call {@link #operator()} for every content stream operator and {@link #tick()} for every glyph, so
+ * a runaway page stops cooperatively by throwing {@link Exceeded} from inside the content stream. The extractor
+ * then writes a {@code [PARTIAL]} marker for the page and goes on with the next page, or stops the document if
+ * the document limit was hit. The clock is read every {@link #CHECK_INTERVAL} calls only.
+ */
+final class Limits {
+    static final int CHECK_INTERVAL = 256;
+
+    static long documentNanos;
+    static long pageNanos;
+    static long maxOperators;
+
+    /**
+     * Set on the thread that finishes a document cut short, and cleared by whoever wants to know, since a
+     * partial output depends on timing and must not be reused (see {@link ResultCache}).
+     */
+    static final ThreadLocal<Boolean> cutShort = ThreadLocal.withInitial(() -> false);
+
+    /** Thrown from inside the content stream processing; a RuntimeException so that PDFBox does not catch it. */
+    static final class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        /** Whether the whole document is over its limit, rather than the page. */
+        final boolean document;
+
+        Exceeded(String reason, boolean document) {
+            super(reason, null, false, false);
+            this.document = document;
+        }
+    }
+
+    final long start;
+    final long documentDeadline;
+    long pageDeadline = Long.MAX_VALUE;
+    long operators;
+    int calls;
+    boolean partial;
+
+    Limits() {
+        this(System.nanoTime());
+    }
+
+    /** Limits of a document started at {@code start}, for the page workers of one document. */
+    Limits(long start) {
+        this.start = start;
+        this.documentDeadline = documentNanos > 0 ? start + documentNanos : Long.MAX_VALUE;
+    }
+
+    void startPage() {
+        operators = 0;
+        pageDeadline = pageNanos > 0 ? System.nanoTime() + pageNanos : Long.MAX_VALUE;
+    }
+
+    void operator() {
+        if (++operators > maxOperators && maxOperators > 0) throw new Exceeded("operator limit", false);
+        tick();
+    }
+
+    void tick() {
+        if (++calls % CHECK_INTERVAL != 0) return;
+        long now = System.nanoTime();
+        if (now > documentDeadline) throw new Exceeded("document timeout", true);
+        if (now > pageDeadline) throw new Exceeded("page timeout", false);
+    }
+
+    /** Counts a page cut short; the marker itself is written by the extractor. */
+    void partialPage() {
+        partial = true;
+        if (Metrics.enabled) Metrics.partialPages.increment();
+    }
+
+    /** To be called when the document is done, to record its time. */
+    void finish() {
+        if (partial) cutShort.set(true);
+        if (Metrics.enabled) Metrics.document(System.nanoTime() - start, partial);
+    }
+}
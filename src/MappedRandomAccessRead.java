@@ -0,0 +1,125 @@
+import org.apache.pdfbox.io.RandomAccessRead;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only PDFBox source over a memory-mapped file, so the file contents stay in the page cache instead of
+ * the heap. Files larger than 2 GB are mapped in several chunks.
+ */
+class MappedRandomAccessRead implements RandomAccessRead {
+    static final int CHUNK_BITS = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    final MappedByteBuffer[] chunks;
+    final long length;
+    long position;
+    boolean closed;
+
+    MappedRandomAccessRead(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            length = channel.size();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+        }
+    }
+
+    void checkClosed() throws IOException {
+        if (closed) throw new IOException("RandomAccessRead already closed");
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = peek();
+        if (b >= 0) position++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (position >= length) return -1;
+        int total = (int) Math.min(len, length - position);
+        for (int done = 0; done < total; ) {
+            MappedByteBuffer chunk = chunks[(int) (position >> CHUNK_BITS)];
+            int offset = (int) (position & (CHUNK_SIZE - 1));
+            int n = Math.min(total - done, chunk.limit() - offset);
+            for (int i = 0; i < n; i++) b[off + done + i] = chunk.get(offset + i);
+            done += n;
+            position += n;
+        }
+        return total;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        checkClosed();
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        checkClosed();
+        if (position < 0) throw new IOException("Invalid position " + position);
+        this.position = Math.min(position, length);
+    }
+
+    @Override
+    public long length() throws IOException {
+        checkClosed();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int peek() throws IOException {
+        checkClosed();
+        if (position >= length) return -1;
+        return chunks[(int) (position >> CHUNK_BITS)].get((int) (position & (CHUNK_SIZE - 1))) & 0xff;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException {
+        seek(position - bytes);
+    }
+
+    @Override
+    public byte[] readFully(int len) throws IOException {
+        byte[] b = new byte[len];
+        if (len > 0 && read(b, 0, len) < len) throw new EOFException("Premature end of file");
+        return b;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        return peek() == -1;
+    }
+
+    @Override
+    public int available() throws IOException {
+        checkClosed();
+        return (int) Math.min(length - position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() {
+        // mappings are released when the buffers are collected
+        closed = true;
+    }
+}
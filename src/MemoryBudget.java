@@ -0,0 +1,133 @@
+/**
+ * Heap budget of a batch run. Each document reserves its estimated cost before it is loaded, waiting while the
+ * budget is spent, and corrects the estimate once its page count is known. Until then the page count is
+ * guessed from the bytes per page of the documents loaded so far.
+ *
+ * Documents estimated at more than a quarter of the budget are large: they are run one at a time (see
+ * {@link BatchRunner}) and reserve at most three quarters of the budget, so small files keep flowing next to
+ * them. A large document that waits for its reservation holds back new small ones, so it is not starved. A
+ * document is always admitted when nothing else is reserved, however large it is.
+ */
+final class MemoryBudget {
+    /** Rough heap cost of a document: parsed objects per byte of PDF, and per page and document while extracting. */
+    static final long OBJECT_BYTES_PER_FILE_BYTE = 1;
+    static final long BYTES_PER_PAGE = 256L << 10;
+    static final long BYTES_PER_DOCUMENT = 4L << 20;
+    /** Assumed until the first document is loaded. */
+    static final long FILE_BYTES_PER_PAGE = 100L << 10;
+
+    final long total;
+    long used, peak, waitingLarge;
+    long loadedFileBytes, loadedPages;
+
+    MemoryBudget(long total) {
+        this.total = total;
+    }
+
+    /** The default budget: three quarters of the maximum heap. */
+    static long defaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 4 * 3;
+    }
+
+    /**
+     * Estimated heap use of a PDF of {@code fileBytes} with {@code pages} pages: the parsed
+     * objects plus the scratch buffers of the streams, which the mixed and mmap policies keep below their
+     * main memory limit.
+     */
+    static long estimate(long fileBytes, int pages) {
+        long scratch = fileBytes;
+        if (DocumentLoader.policy == DocumentLoader.Policy.MIXED || DocumentLoader.policy == DocumentLoader.Policy.MMAP) {
+            scratch = Math.min(scratch, DocumentLoader.maxMainMemory);
+        }
+        return OBJECT_BYTES_PER_FILE_BYTE * fileBytes + scratch + BYTES_PER_PAGE * pages + BYTES_PER_DOCUMENT;
+    }
+
+    /** Estimated heap use of a PDF of {@code fileBytes} that is not loaded yet. */
+    long estimate(long fileBytes) {
+        long pages;
+        synchronized (this) {
+            pages = loadedPages == 0 ? fileBytes / FILE_BYTES_PER_PAGE : fileBytes * loadedPages / loadedFileBytes;
+        }
+        return estimate(fileBytes, (int) Math.min(pages, Integer.MAX_VALUE));
+    }
+
+    boolean isLarge(long estimate) {
+        return estimate > total / 4;
+    }
+
+    /** Waits until the estimate for a PDF of {@code fileBytes} fits into the budget. */
+    Reservation reserve(long fileBytes, boolean large) throws InterruptedException {
+        Reservation reservation = new Reservation(fileBytes, large, cap(estimate(fileBytes), large));
+        acquire(reservation.bytes, large);
+        return reservation;
+    }
+
+    long cap(long estimate, boolean large) {
+        return large ? Math.min(estimate, total / 4 * 3) : estimate;
+    }
+
+    synchronized void acquire(long bytes, boolean large) throws InterruptedException {
+        if (large) {
+            waitingLarge = bytes;
+            try {
+                while (used > 0 && used + bytes > total) wait();
+            } finally {
+                waitingLarge = 0;
+                notifyAll();
+            }
+        } else {
+            while (used > 0 && used + bytes + waitingLarge > total) wait();
+        }
+        add(bytes);
+    }
+
+    /** Changes a reservation without waiting; an increase holds back later documents instead. */
+    synchronized void resize(long from, long to) {
+        add(to - from);
+        if (to < from) notifyAll();
+    }
+
+    synchronized void release(long bytes) {
+        used -= bytes;
+        notifyAll();
+    }
+
+    void add(long bytes) {
+        used += bytes;
+        peak = Math.max(peak, used);
+    }
+
+    synchronized String summary() {
+        return String.format("peak reserved %.0f of %.0f MB", peak / 1048576.0, total / 1048576.0);
+    }
+
+    /** The share of the budget held by one document, returned when it is closed. */
+    final class Reservation implements AutoCloseable {
+        final long fileBytes;
+        final boolean large;
+        long bytes;
+
+        Reservation(long fileBytes, boolean large, long bytes) {
+            this.fileBytes = fileBytes;
+            this.large = large;
+            this.bytes = bytes;
+        }
+
+        /** Corrects the estimate with the page count of the loaded document. */
+        void pages(int pages) {
+            synchronized (MemoryBudget.this) {
+                loadedFileBytes += fileBytes;
+                loadedPages += pages;
+            }
+            long estimate = cap(estimate(fileBytes, pages), large);
+            resize(bytes, estimate);
+            bytes = estimate;
+        }
+
+        @Override
+        public void close() {
+            release(bytes);
+            bytes = 0;
+        }
+    }
+}
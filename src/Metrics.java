@@ -0,0 +1,225 @@
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and timers of the extractors, dumped as JSON or Prometheus text at the end of a run.
+ *
+ * Extractors count glyphs, path operators and images in plain fields of the per-page engine and report them
+ * once per page, only when {@link #enabled} is set; when it is not, the cost is one field increment per record
+ * and one branch per page.
+ */
+final class Metrics {
+    private Metrics() {
+    }
+
+    static boolean enabled;
+    static final int SLOWEST_PAGES = 10;
+
+    static final LongAdder documents = new LongAdder();
+    static final LongAdder loadNanos = new LongAdder();
+    static final AtomicLong maxLoadNanos = new AtomicLong();
+    static final LongAdder pages = new LongAdder();
+    static final LongAdder pageNanos = new LongAdder();
+    static final AtomicLong maxPageNanos = new AtomicLong();
+    static final LongAdder glyphs = new LongAdder();
+    static final LongAdder pathOps = new LongAdder();
+    static final LongAdder images = new LongAdder();
+    static final LongAdder bytesWritten = new LongAdder();
+    static final LongAdder partialPages = new LongAdder();
+    static final LongAdder partialDocuments = new LongAdder();
+    /** Processing time of every document, for the quantiles. */
+    static long[] documentNanos = new long[1024];
+    static int documentCount;
+
+    /** Min-heap on time, so the fastest of the slowest pages is dropped first. */
+    static final PriorityQueue<PageTime> slowestPages = new PriorityQueue<>(Comparator.comparingLong(p -> p.nanos));
+    static final ThreadLocal<String> currentDocument = new ThreadLocal<>();
+
+    static class PageTime {
+        final String document;
+        final int pageNo;
+        final long nanos, glyphs, pathOps, images;
+
+        PageTime(String document, int pageNo, long nanos, long glyphs, long pathOps, long images) {
+            this.document = document;
+            this.pageNo = pageNo;
+            this.nanos = nanos;
+            this.glyphs = glyphs;
+            this.pathOps = pathOps;
+            this.images = images;
+        }
+    }
+
+    static void documentLoaded(String document, long nanos) {
+        currentDocument.set(document);
+        documents.increment();
+        loadNanos.add(nanos);
+        maxLoadNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    static void page(int pageNo, long nanos, long pageGlyphs, long pagePathOps, long pageImages) {
+        pages.increment();
+        pageNanos.add(nanos);
+        maxPageNanos.accumulateAndGet(nanos, Math::max);
+        glyphs.add(pageGlyphs);
+        pathOps.add(pagePathOps);
+        images.add(pageImages);
+        synchronized (slowestPages) {
+            if (slowestPages.size() < SLOWEST_PAGES || slowestPages.peek().nanos < nanos) {
+                slowestPages.add(new PageTime(currentDocument.get(), pageNo, nanos, pageGlyphs, pagePathOps, pageImages));
+                if (slowestPages.size() > SLOWEST_PAGES) slowestPages.poll();
+            }
+        }
+    }
+
+    static void document(long nanos, boolean partial) {
+        if (partial) partialDocuments.increment();
+        synchronized (Metrics.class) {
+            if (documentCount == documentNanos.length) documentNanos = Arrays.copyOf(documentNanos, documentCount * 2);
+            documentNanos[documentCount++] = nanos;
+        }
+    }
+
+    /** The {@code q} quantile of the document times, nearest rank. */
+    static synchronized double documentSeconds(double q) {
+        if (documentCount == 0) return 0;
+        long[] sorted = Arrays.copyOf(documentNanos, documentCount);
+        Arrays.sort(sorted);
+        return seconds(sorted[Math.max(0, (int) Math.ceil(q * documentCount) - 1)]);
+    }
+
+    /** Counts the UTF-8 bytes written through {@code w} when metrics are enabled. */
+    static Writer wrap(Writer w) {
+        if (!enabled) return w;
+        return new FilterWriter(w) {
+            @Override
+            public void write(int c) throws IOException {
+                bytesWritten.add(utf8Length((char) c));
+                super.write(c);
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                long n = 0;
+                for (int i = off; i < off + len; i++) n += utf8Length(cbuf[i]);
+                bytesWritten.add(n);
+                super.write(cbuf, off, len);
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                long n = 0;
+                for (int i = off; i < off + len; i++) n += utf8Length(str.charAt(i));
+                bytesWritten.add(n);
+                super.write(str, off, len);
+            }
+        };
+    }
+
+    static int utf8Length(char c) {
+        // a surrogate pair takes 4 bytes, 2 for each half
+        return c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+    }
+
+    static List<PageTime> slowestPages() {
+        List<PageTime> list;
+        synchronized (slowestPages) {
+            list = new ArrayList<>(slowestPages);
+        }
+        list.sort(Comparator.comparingLong((PageTime p) -> p.nanos).reversed());
+        return list;
+    }
+
+    static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    static String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append(String.format(Locale.ROOT, "\"documents\":%d,\"load_seconds_total\":%.6f,\"load_seconds_max\":%.6f,",
+                documents.sum(), seconds(loadNanos.sum()), seconds(maxLoadNanos.get())));
+        sb.append(String.format(Locale.ROOT, "\"pages\":%d,\"page_seconds_total\":%.6f,\"page_seconds_max\":%.6f,",
+                pages.sum(), seconds(pageNanos.sum()), seconds(maxPageNanos.get())));
+        sb.append(String.format(Locale.ROOT, "\"glyphs\":%d,\"path_ops\":%d,\"images\":%d,\"bytes_written\":%d,",
+                glyphs.sum(), pathOps.sum(), images.sum(), bytesWritten.sum()));
+        sb.append(String.format(Locale.ROOT, "\"partial_pages\":%d,\"partial_documents\":%d,",
+                partialPages.sum(), partialDocuments.sum()));
+        sb.append(String.format(Locale.ROOT, "\"document_seconds_p50\":%.6f,\"document_seconds_p99\":%.6f,\"document_seconds_max\":%.6f,",
+                documentSeconds(0.5), documentSeconds(0.99), documentSeconds(1)));
+        sb.append("\"slowest_pages\":[");
+        String sep = "";
+        for (PageTime p : slowestPages()) {
+            sb.append(sep).append(String.format(Locale.ROOT,
+                    "{\"document\":%s,\"page\":%d,\"seconds\":%.6f,\"glyphs\":%d,\"path_ops\":%d,\"images\":%d}",
+                    jsonString(p.document), p.pageNo, seconds(p.nanos), p.glyphs, p.pathOps, p.images));
+            sep = ",";
+        }
+        return sb.append("]}").toString();
+    }
+
+    static String jsonString(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    static String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        counter(sb, "pdfreader_documents_total", "Documents loaded.", documents.sum());
+        counter(sb, "pdfreader_load_seconds_total", "Time spent in PDDocument.load.", seconds(loadNanos.sum()));
+        gauge(sb, "pdfreader_load_seconds_max", "Slowest PDDocument.load.", seconds(maxLoadNanos.get()));
+        counter(sb, "pdfreader_pages_total", "Pages processed.", pages.sum());
+        counter(sb, "pdfreader_page_seconds_total", "Time spent processing pages.", seconds(pageNanos.sum()));
+        gauge(sb, "pdfreader_page_seconds_max", "Slowest page.", seconds(maxPageNanos.get()));
+        counter(sb, "pdfreader_glyphs_total", "Glyph records emitted.", glyphs.sum());
+        counter(sb, "pdfreader_path_ops_total", "Path operators emitted.", pathOps.sum());
+        counter(sb, "pdfreader_images_total", "Image placements seen.", images.sum());
+        counter(sb, "pdfreader_bytes_written_total", "Output bytes written.", bytesWritten.sum());
+        counter(sb, "pdfreader_partial_pages_total", "Pages cut short by a time or operator limit.", partialPages.sum());
+        counter(sb, "pdfreader_partial_documents_total", "Documents with a page cut short.", partialDocuments.sum());
+        sb.append("# HELP pdfreader_document_seconds Processing time per document.\n");
+        sb.append("# TYPE pdfreader_document_seconds summary\n");
+        for (double q : new double[]{0.5, 0.99, 1}) {
+            sb.append(String.format(Locale.ROOT, "pdfreader_document_seconds{quantile=\"%s\"} %.6f\n", q == 1 ? "1" : String.valueOf(q), documentSeconds(q)));
+        }
+        synchronized (Metrics.class) {
+            long sum = 0;
+            for (int i = 0; i < documentCount; i++) sum += documentNanos[i];
+            sb.append(String.format(Locale.ROOT, "pdfreader_document_seconds_sum %.6f\npdfreader_document_seconds_count %d\n", seconds(sum), documentCount));
+        }
+        sb.append("# HELP pdfreader_slowest_page_seconds Processing time of the slowest pages.\n");
+        sb.append("# TYPE pdfreader_slowest_page_seconds gauge\n");
+        for (PageTime p : slowestPages()) {
+            sb.append(String.format(Locale.ROOT, "pdfreader_slowest_page_seconds{document=\"%s\",page=\"%d\"} %.6f\n",
+                    String.valueOf(p.document).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"),
+                    p.pageNo, seconds(p.nanos)));
+        }
+        return sb.toString();
+    }
+
+    static void counter(StringBuilder sb, String name, String help, Number value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    static void gauge(StringBuilder sb, String name, String help, Number value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,356 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The output stream shared by the extractors that print their results: stdout, or the file given with
+ * {@code --output <file>}, optionally compressed ({@code --gzip}) and rolled over to the next file (see
+ * {@link #fileName}) at the end of the first document that takes a file past {@code --roll <size>}.
+ *
+ * Each document is written through its own {@link Document}, which collects the text into large chunks and
+ * hands them to a writer thread that encodes, compresses and writes them, so extraction threads only copy
+ * chars. The output of a document is never interleaved with another's, and a file only rolls over between
+ * documents. Producers wait when {@link #QUEUED_CHUNKS} chunks are not written yet, queued or held back while
+ * another document is written; the producer of the document being written goes on up to twice as many, since
+ * the others wait for it. Memory is so bounded however many documents are open. {@link #close()}, called by
+ * {@link CommonOptions#finish()} or at exit, writes what is queued.
+ */
+final class OutputSink implements Closeable {
+    static final int CHUNK_CHARS = 64 << 10;
+    static final int QUEUED_CHUNKS = 512;
+
+    static String outputPath;
+    static boolean gzip;
+    static long rollBytes;
+
+    private static OutputSink instance;
+
+    /** The shared sink, started on first use. */
+    static synchronized OutputSink get() throws IOException {
+        if (instance == null) {
+            instance = new OutputSink(outputPath, gzip, rollBytes);
+            OutputSink sink = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    System.err.println("output: " + e);
+                }
+            }));
+        }
+        return instance;
+    }
+
+    /** Closes the shared sink if it was used. */
+    static synchronized void finish() throws IOException {
+        if (instance != null) instance.close();
+    }
+
+    /** Opens the writer of one document, which is written out as it is produced; see {@link Document}. */
+    static Document open() throws IOException {
+        return new Document(get(), false);
+    }
+
+    /** Opens the writer of a document that is written out as a whole when it is closed, or not at all. */
+    static Document openAtomic() throws IOException {
+        return new Document(get(), true);
+    }
+
+    static final class Chunk {
+        final Document doc;
+        /** Null for the end of the document. */
+        final char[] chars;
+        final int length;
+
+        Chunk(Document doc, char[] chars, int length) {
+            this.doc = doc;
+            this.chars = chars;
+            this.length = length;
+        }
+    }
+
+    static final Chunk END = new Chunk(null, null, 0);
+
+    final String path;
+    final boolean compress;
+    final long roll;
+    /** Bounded by {@link #reserve}. */
+    final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+    /** Guards {@link #unwritten}; not the sink itself, whose {@link #close()} waits for the writer thread. */
+    final Object room = new Object();
+    /** Chunks enqueued and not written yet. */
+    int unwritten;
+    final Thread thread;
+    volatile IOException error;
+    volatile boolean closed;
+
+    // owned by the writer thread
+    Writer out;
+    CountingOutputStream file;
+    int fileIndex;
+    /** Read by producers in {@link #reserve}. */
+    volatile Document current;
+    /** Documents with chunks waiting for the current document to end, in order of their first chunk. */
+    final ArrayDeque<Document> waiting = new ArrayDeque<>();
+
+    OutputSink(String path, boolean compress, long roll) throws IOException {
+        this.path = path;
+        this.compress = compress;
+        this.roll = path != null ? roll : 0;
+        openFile();
+        thread = new Thread(this::run, "output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void openFile() throws IOException {
+        OutputStream stream;
+        if (path == null) {
+            stream = new FilterOutputStream(System.out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        } else {
+            stream = file = new CountingOutputStream(new FileOutputStream(fileName(path, fileIndex)));
+        }
+        stream = new BufferedOutputStream(stream, 1 << 20);
+        // a sync flush at the end of each document makes the file size known for rolling
+        if (compress) stream = new GZIPOutputStream(stream, 1 << 16, roll > 0);
+        out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+    }
+
+    /** {@code out.tsv}, {@code out.tsv.1}, ...; {@code out.gz}, {@code out.1.gz}, ... */
+    static String fileName(String path, int index) {
+        if (index == 0) return path;
+        if (path.endsWith(".gz")) return path.substring(0, path.length() - 3) + "." + index + ".gz";
+        return path + "." + index;
+    }
+
+    void enqueue(Chunk chunk) throws IOException {
+        if (error != null) throw error;
+        if (closed) throw new IOException("output already closed");
+        reserve(chunk.doc);
+        queue.add(chunk);
+    }
+
+    /** Waits until the chunk of {@code doc} fits in the bound; see the class comment. */
+    void reserve(Document doc) throws IOException {
+        synchronized (room) {
+            while (unwritten >= (doc == current ? 2 * QUEUED_CHUNKS : QUEUED_CHUNKS)) {
+                if (error != null) throw error;
+                try {
+                    room.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            unwritten++;
+        }
+    }
+
+    /** Frees the room of a chunk, and wakes the producers to check again, also after {@link #current} changed. */
+    void released() {
+        synchronized (room) {
+            unwritten--;
+            room.notifyAll();
+        }
+    }
+
+    void run() {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (chunk == END) break;
+            // after a failure the queue is still drained, so that producers do not wait forever
+            if (error != null) {
+                released();
+                continue;
+            }
+            try {
+                dispatch(chunk);
+                // flush when idle, so output shows up while a slow run goes on
+                if (queue.isEmpty() && out != null) out.flush();
+            } catch (IOException e) {
+                error = e;
+                synchronized (room) {
+                    room.notifyAll();
+                }
+            }
+        }
+        try {
+            if (out != null) out.close();
+        } catch (IOException e) {
+            if (error == null) error = e;
+        }
+    }
+
+    void dispatch(Chunk chunk) throws IOException {
+        if (current == null) current = chunk.doc;
+        if (chunk.doc != current) {
+            if (chunk.doc.pending.isEmpty()) waiting.add(chunk.doc);
+            chunk.doc.pending.add(chunk);
+            return;
+        }
+        write(chunk);
+        while (current == null && !waiting.isEmpty()) {
+            Document next = waiting.poll();
+            current = next;
+            for (Chunk c : next.pending) write(c);
+            next.pending.clear();
+        }
+    }
+
+    void write(Chunk chunk) throws IOException {
+        if (chunk.chars != null) {
+            if (out == null) openFile();
+            out.write(chunk.chars, 0, chunk.length);
+            released();
+            return;
+        }
+        current = null;
+        released();
+        if (roll > 0 && out != null) {
+            out.flush();
+            if (file.count >= roll) {
+                out.close();
+                out = null;
+                fileIndex++;
+            }
+        }
+    }
+
+    /** Writes the queued output and stops the writer thread; throws the first write error, if any. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                queue.put(END);
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    /**
+     * Append-only buffer of one document, to be used by one thread. Full chunks are passed on as they fill
+     * up, or all at {@link #close()} for an atomic document, which {@link #discard()} can drop instead;
+     * {@link #flush()} passes on the partial chunk so that slow output still shows up.
+     */
+    static final class Document extends Writer {
+        final OutputSink sink;
+        final boolean atomic;
+        final List<Chunk> held = new ArrayList<>();
+        /** Chunks received by the writer thread while another document is being written. */
+        final List<Chunk> pending = new ArrayList<>();
+        char[] chars = new char[CHUNK_CHARS];
+        int length;
+        boolean closed;
+
+        Document(OutputSink sink, boolean atomic) {
+            this.sink = sink;
+            this.atomic = atomic;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (length == chars.length) pass();
+            chars[length++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == chars.length) pass();
+                int n = Math.min(len, chars.length - length);
+                System.arraycopy(cbuf, off, chars, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == chars.length) pass();
+                int n = Math.min(len, chars.length - length);
+                str.getChars(off, off + n, chars, length);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void pass() throws IOException {
+            Chunk chunk = new Chunk(this, chars, length);
+            if (atomic) held.add(chunk);
+            else sink.enqueue(chunk);
+            chars = new char[CHUNK_CHARS];
+            length = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!atomic && length > 0) pass();
+        }
+
+        /** Ends the document. */
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (length > 0) pass();
+            for (Chunk chunk : held) sink.enqueue(chunk);
+            held.clear();
+            sink.enqueue(new Chunk(this, null, 0));
+        }
+
+        /** Ends an atomic document without writing any of it. */
+        void discard() throws IOException {
+            held.clear();
+            length = 0;
+            close();
+        }
+    }
+
+    static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
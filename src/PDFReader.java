@@ -1,21 +1,41 @@
-import java.io.IOException;
-import java.io.File;
-import java.util.List;
-import java.util.ArrayList;
+import java.io.*;
+import java.util.*;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.pdfbox.contentstream.PDContentStream;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.util.Matrix;
 
+/**
+ * Writes TextDrawExtractor output to {@code <name>.txt} for each PDF, or with {@code --tokens} streams the
+ * content stream tokens of all pages to stdout, or with {@code --profile} prints the operator counts, the
+ * largest content streams and the heaviest pages.
+ *
+ * Tokens are pulled one at a time and never collected, so huge content streams only hold one token (one
+ * inline image at most) in memory. A page whose content cannot be parsed is reported and skipped.
+ */
 public class PDFReader {
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 1) {
-            System.err.println("Usage: pdfparser <file|directory>");
+        args = CommonOptions.parse(args);
+        String mode = args.length == 2 ? args[0] : null;
+        if (args.length != 1 && !"--tokens".equals(mode) && !"--profile".equals(mode)) {
+            System.err.println("Usage: pdfparser [--memory policy] [--scratch-dir dir] [--tokens | --profile] <file|directory>");
         }
         else {
             PDDocument doc = null;
+            Profile profile = new Profile();
             try {
-                File file = new File(args[0]);
+                File file = new File(args[args.length - 1]);
                 ArrayList<File> files = new ArrayList<>();
                 if (file.isFile()) files.add(file);
                 else if(file.isDirectory()) {
@@ -24,27 +44,247 @@ public class PDFReader {
                     }
                 }
                 for (File f : files) {
-                    doc = PDDocument.load(f);
+                    doc = DocumentLoader.load(f);
                     //(new DrawExtractor(doc.getPage(0))).run();
-                    //PDFReader.process(doc);
-                    (new TextExtractor()).process(doc, f.getName()+".txt");
+                    if ("--tokens".equals(mode)) {
+                        try (Writer out = Metrics.wrap(OutputSink.open())) {
+                            process(doc, out, null, f.getPath());
+                        }
+                    } else if ("--profile".equals(mode)) {
+                        process(doc, null, profile, f.getPath());
+                    } else {
+                        try (Writer w = Metrics.wrap(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f.getName() + ".txt"), "UTF-8")))) {
+                            TextDrawExtractor.process(doc, w);
+                        }
+                    }
                     //(new ImageExtractor()).process(doc);
+                    doc.close();
+                    doc = null;
+                }
+                if ("--profile".equals(mode)) {
+                    try (Writer out = OutputSink.open()) {
+                        profile.write(out);
+                    }
                 }
             }
             finally {
                 if (doc != null) doc.close();
             }
+            CommonOptions.finish();
         }
     }
 
-    public static void process(PDDocument doc) throws IOException {
-        PDPage page = doc.getDocumentCatalog().getPages().get(0);
-        PDFStreamParser parser = new PDFStreamParser(page);
-        parser.parse();
-        List<Object> tokens = parser.getTokens();
-        for (int i = 0; i < tokens.size(); i++) {
-            Object t = tokens.get(i);
-            System.out.println(t);
+    /**
+     * Streams the tokens of every page to {@code out} as {@code page\ttoken} lines if it is not null, and adds
+     * the page statistics to {@code profile} if it is not null.
+     */
+    public static void process(PDDocument doc, Writer out, Profile profile, String source) throws IOException {
+        int pageNo = 0;
+        for (PDPage page : doc.getPages()) {
+            pageNo++;
+            if (!PageSelection.includes(pageNo)) continue;
+            PageStats stats = new PageStats(source, pageNo);
+            long start = System.nanoTime();
+            List<CountingInputStream> streams = contentStreams(page, stats);
+            try {
+                PDFStreamParser parser = new PDFStreamParser(concatenate(page, streams));
+                Object token;
+                while ((token = parser.parseNextToken()) != null) {
+                    stats.tokens++;
+                    if (token instanceof Operator) {
+                        stats.operators++;
+                        if (profile != null) profile.countOperator(((Operator) token).getName());
+                    }
+                    if (out != null) {
+                        out.write(pageNo + "\t" + token + "\n");
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // broken content: report and go on with the next page
+                stats.error = e.toString();
+                System.err.println(source + ": page " + pageNo + ": " + e);
+            }
+            for (CountingInputStream stream : streams) {
+                stats.streamBytes.add(stream.count);
+                stream.close();
+            }
+            stats.nanos = System.nanoTime() - start;
+            if (profile != null) profile.add(stats);
+        }
+        if (out != null) out.flush();
+    }
+
+    /** Decoded content streams of the page, skipping entries that are not streams or cannot be decoded. */
+    static List<CountingInputStream> contentStreams(PDPage page, PageStats stats) {
+        List<COSStream> cosStreams = new ArrayList<>();
+        COSBase contents = page.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+        if (contents instanceof COSStream) {
+            cosStreams.add((COSStream) contents);
+        } else if (contents instanceof COSArray) {
+            COSArray array = (COSArray) contents;
+            for (int i = 0; i < array.size(); i++) {
+                COSBase stream = array.getObject(i);
+                if (stream instanceof COSStream) cosStreams.add((COSStream) stream);
+                else stats.skippedStreams++;
+            }
+        }
+        List<CountingInputStream> streams = new ArrayList<>();
+        for (COSStream stream : cosStreams) {
+            try {
+                streams.add(new CountingInputStream(decode(stream)));
+                stats.encodedBytes.add(stream.getLength());
+            } catch (IOException e) {
+                stats.skippedStreams++;
+            }
+        }
+        return streams;
+    }
+
+    /**
+     * Decodes flate streams on the fly, since COSStream.createInputStream decodes the whole stream into a
+     * scratch buffer first; other filters go through PDFBox.
+     */
+    static InputStream decode(COSStream stream) throws IOException {
+        COSBase filters = stream.getFilters();
+        if (COSName.FLATE_DECODE.equals(filters) && stream.getDictionaryObject(COSName.DECODE_PARMS) == null) {
+            return new InflaterInputStream(stream.createRawInputStream()) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    try {
+                        return super.read(b, off, len);
+                    } catch (EOFException e) {
+                        // truncated stream: keep what was decoded, as FlateFilter does
+                        return -1;
+                    }
+                }
+            };
+        }
+        return stream.createInputStream();
+    }
+
+    /** The content streams joined by newlines, as PDPage.getContents does. */
+    static PDContentStream concatenate(PDPage page, List<CountingInputStream> streams) {
+        List<InputStream> parts = new ArrayList<>();
+        for (InputStream stream : streams) {
+            parts.add(stream);
+            parts.add(new ByteArrayInputStream(new byte[]{'\n'}));
+        }
+        InputStream joined = new SequenceInputStream(Collections.enumeration(parts));
+        return new PDContentStream() {
+            @Override
+            public InputStream getContents() {
+                return joined;
+            }
+
+            @Override
+            public PDResources getResources() {
+                return page.getResources();
+            }
+
+            @Override
+            public PDRectangle getBBox() {
+                return page.getBBox();
+            }
+
+            @Override
+            public Matrix getMatrix() {
+                return page.getMatrix();
+            }
+        };
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    static class PageStats {
+        final String document;
+        final int pageNo;
+        long tokens, operators, nanos;
+        int skippedStreams;
+        final List<Long> encodedBytes = new ArrayList<>();
+        final List<Long> streamBytes = new ArrayList<>();
+        String error;
+
+        PageStats(String document, int pageNo) {
+            this.document = document;
+            this.pageNo = pageNo;
+        }
+
+        long bytes() {
+            long sum = 0;
+            for (long b : streamBytes) sum += b;
+            return sum;
+        }
+    }
+
+    /** Aggregate over all documents: operator counts, the largest content streams and the heaviest pages. */
+    static class Profile {
+        static final int HEAVIEST_PAGES = 10;
+
+        final Map<String, long[]> operatorCounts = new TreeMap<>();
+        /** Min-heap on time, so the lightest of the heaviest pages is dropped first. */
+        final PriorityQueue<PageStats> heaviestPages = new PriorityQueue<>(Comparator.comparingLong(p -> p.nanos));
+        /** Largest content streams as {document, page, stream index, encoded bytes, decoded bytes}; min-heap on size. */
+        final PriorityQueue<Object[]> largestStreams = new PriorityQueue<>(Comparator.comparingLong(s -> (Long) s[4]));
+        long pages, tokens, streams, bytes, encodedBytes, failedPages;
+
+        void countOperator(String name) {
+            operatorCounts.computeIfAbsent(name, k -> new long[1])[0]++;
+        }
+
+        void add(PageStats stats) {
+            pages++;
+            tokens += stats.tokens;
+            bytes += stats.bytes();
+            if (stats.error != null) failedPages++;
+            for (int i = 0; i < stats.streamBytes.size(); i++) {
+                streams++;
+                encodedBytes += stats.encodedBytes.get(i);
+                largestStreams.add(new Object[]{stats.document, stats.pageNo, i, stats.encodedBytes.get(i), stats.streamBytes.get(i)});
+                if (largestStreams.size() > HEAVIEST_PAGES) largestStreams.poll();
+            }
+            heaviestPages.add(stats);
+            if (heaviestPages.size() > HEAVIEST_PAGES) heaviestPages.poll();
+        }
+
+        void write(Writer out) throws IOException {
+            out.write(String.format(Locale.ROOT, "# %d pages, %d failed, %d tokens, %d content streams, %d encoded bytes, %d decoded bytes%n",
+                    pages, failedPages, tokens, streams, encodedBytes, bytes));
+            out.write("# operator\tcount\n");
+            List<Map.Entry<String, long[]>> operators = new ArrayList<>(operatorCounts.entrySet());
+            operators.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+            for (Map.Entry<String, long[]> e : operators) out.write(e.getKey() + "\t" + e.getValue()[0] + "\n");
+            out.write("# document\tpage\tstream\tencoded_bytes\tdecoded_bytes\n");
+            List<Object[]> largest = new ArrayList<>(largestStreams);
+            largest.sort(Comparator.comparingLong((Object[] s) -> (Long) s[4]).reversed());
+            for (Object[] s : largest) out.write(s[0] + "\t" + s[1] + "\t" + s[2] + "\t" + s[3] + "\t" + s[4] + "\n");
+            out.write("# document\tpage\tseconds\ttokens\toperators\tdecoded_bytes\terror\n");
+            List<PageStats> heaviest = new ArrayList<>(heaviestPages);
+            heaviest.sort(Comparator.comparingLong((PageStats p) -> p.nanos).reversed());
+            for (PageStats p : heaviest) {
+                out.write(String.format(Locale.ROOT, "%s\t%d\t%.6f\t%d\t%d\t%d\t%s%n",
+                        p.document, p.pageNo, p.nanos / 1e9, p.tokens, p.operators, p.bytes(), p.error == null ? "" : p.error));
+            }
+            out.flush();
         }
     }
 }
@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * The pages the extractors process, and how many records they write: {@code --first <n>} pages,
+ * {@code --pages <ranges>} such as {@code 1,3-5,8-} (or {@code @file}, a manifest of ranges separated by commas
+ * or lines), {@code --stride <k>} for pages 1, 1 + k, 1 + 2k..., and {@code --sample <fraction>[:seed]} for a
+ * random share of the pages. A page is processed if any of them selects it, all pages without any. The other
+ * pages are skipped before their content is parsed. {@code --max-records <n>} stops a document after n records,
+ * see {@link #limit}.
+ *
+ * The sample is drawn from the seed and the page number only, so a run picks the same pages again, whatever
+ * the other pages and options.
+ */
+final class PageSelection {
+    static int first;
+    /** Inclusive 1-based page ranges, null if not given. */
+    static int[][] ranges;
+    static int stride;
+    static double sample;
+    static long seed;
+    static long maxRecords;
+
+    static boolean all() {
+        return first == 0 && ranges == null && stride == 0 && sample == 0;
+    }
+
+    static boolean includes(int pageNo) {
+        if (all()) return true;
+        if (pageNo <= first) return true;
+        if (ranges != null && inRanges(ranges, pageNo)) return true;
+        if (stride > 0 && (pageNo - 1) % stride == 0) return true;
+        return sample > 0 && uniform(seed, pageNo) < sample;
+    }
+
+    static boolean inRanges(int[][] ranges, int pageNo) {
+        for (int[] range : ranges) {
+            if (pageNo >= range[0] && pageNo <= range[1]) return true;
+        }
+        return false;
+    }
+
+    /** A number in [0, 1) that depends only on the seed and the page, from the SplitMix64 finalizer. */
+    static double uniform(long seed, int pageNo) {
+        long z = seed + pageNo * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * {@code 1,3-5,8-} as inclusive ranges; {@code *} for all pages gives no ranges, which is up to the caller to
+     * read as all pages. Page 0 and reversed ranges are rejected.
+     */
+    static int[][] parseRanges(String spec) {
+        if ("*".equals(spec)) return new int[0][];
+        String[] parts = spec.split(",");
+        int[][] ranges = new int[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            int dash = parts[i].indexOf('-');
+            if (dash < 0) {
+                int page = Integer.parseInt(parts[i]);
+                ranges[i] = new int[]{page, page};
+            } else {
+                int to = dash == parts[i].length() - 1 ? Integer.MAX_VALUE : Integer.parseInt(parts[i].substring(dash + 1));
+                ranges[i] = new int[]{Integer.parseInt(parts[i].substring(0, dash)), to};
+            }
+            if (ranges[i][0] < 1) throw new IllegalArgumentException("pages are numbered from 1: " + parts[i]);
+            if (ranges[i][1] < ranges[i][0]) throw new IllegalArgumentException("reversed page range: " + parts[i]);
+        }
+        return ranges;
+    }
+
+    /** {@code --pages}: ranges, {@code *} for all pages, or {@code @file} with ranges separated by commas, spaces or lines. */
+    static void parsePages(String spec) throws IOException {
+        if (spec.startsWith("@")) {
+            String manifest = new String(Files.readAllBytes(Paths.get(spec.substring(1))), StandardCharsets.UTF_8);
+            spec = String.join(",", manifest.trim().split("[\\s,]+"));
+            // an empty manifest selects no pages
+            if (spec.isEmpty()) {
+                ranges = new int[0][];
+                return;
+            }
+        }
+        ranges = "*".equals(spec) ? null : parseRanges(spec);
+    }
+
+    /** {@code --sample fraction[:seed]}, the fraction in [0, 1]. */
+    static void parseSample(String spec) {
+        int colon = spec.indexOf(':');
+        sample = Double.parseDouble(colon < 0 ? spec : spec.substring(0, colon));
+        if (!(sample >= 0 && sample <= 1)) throw new IllegalArgumentException("--sample must be in [0, 1]: " + spec);
+        if (colon >= 0) seed = Long.parseLong(spec.substring(colon + 1));
+    }
+
+    /** Cache key suffix of the selection, empty for the whole document. */
+    static String signature() {
+        if (all() && maxRecords == 0) return "";
+        StringBuilder s = new StringBuilder("-p");
+        if (first > 0) s.append("f").append(first);
+        if (ranges != null) {
+            for (int[] range : ranges) s.append("r").append(range[0]).append("_").append(range[1]);
+        }
+        if (stride > 0) s.append("s").append(stride);
+        if (sample > 0) s.append("x").append(sample).append("_").append(seed);
+        if (maxRecords > 0) s.append("m").append(maxRecords);
+        return s.toString();
+    }
+
+    /**
+     * The sink itself, or with {@code --max-records} a sink that ends the page and throws {@link RecordSink.Stop}
+     * after that many glyphs, paths, images or regions; the extractors end the document there.
+     */
+    static RecordSink limit(RecordSink sink) {
+        if (maxRecords == 0) return sink;
+        return new RecordSink() {
+            long records;
+            int pageNo;
+
+            void counted() throws IOException {
+                if (++records < maxRecords) return;
+                sink.endPage(pageNo);
+                throw new RecordSink.Stop();
+            }
+
+            @Override
+            public void startPage(int pageNo) throws IOException {
+                this.pageNo = pageNo;
+                sink.startPage(pageNo);
+            }
+
+            @Override
+            public void glyph(String unicode, int pageNo, float x, float y, float width, float height,
+                              String fontName, float fontSize, float spaceWidth) throws IOException {
+                this.pageNo = pageNo;
+                sink.glyph(unicode, pageNo, x, y, width, height, fontName, fontSize, spaceWidth);
+                counted();
+            }
+
+            @Override
+            public void path(byte paint, int pageNo, byte[] ops, int opCount, float[] coords) throws IOException {
+                this.pageNo = pageNo;
+                sink.path(paint, pageNo, ops, opCount, coords);
+                counted();
+            }
+
+            @Override
+            public void image(int pageNo, float x, float y, float width, float height, String file) throws IOException {
+                this.pageNo = pageNo;
+                sink.image(pageNo, x, y, width, height, file);
+                counted();
+            }
+
+            @Override
+            public void region(int pageNo, String name, String text) throws IOException {
+                this.pageNo = pageNo;
+                sink.region(pageNo, name, text);
+                counted();
+            }
+
+            @Override
+            public void partial(int pageNo, String reason) throws IOException {
+                sink.partial(pageNo, reason);
+            }
+
+            @Override
+            public void endPage(int pageNo) throws IOException {
+                sink.endPage(pageNo);
+            }
+        };
+    }
+}
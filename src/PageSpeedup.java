@@ -0,0 +1,65 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+
+/**
+ * Measures the speedup of {@link TextDrawExtractor#processParallel} over the sequential loop on one PDF,
+ * and checks that both produce the same output.
+ */
+public class PageSpeedup {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java PageSpeedup <pdf> [threads...]");
+            return;
+        }
+        Path path = Paths.get(args[0]);
+        int pages;
+        // warm up class loading and font caches so they are not charged to the sequential run
+        try (PDDocument doc = DocumentLoader.load(path)) {
+            TextDrawExtractor.process(doc, new ChecksumWriter());
+        }
+        ChecksumWriter seq = new ChecksumWriter();
+        long start = System.nanoTime();
+        try (PDDocument doc = DocumentLoader.load(path)) {
+            pages = doc.getNumberOfPages();
+            TextDrawExtractor.process(doc, seq);
+        }
+        double seqSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("pages=%d threads=1 %.3f s %.1f pages/s", pages, seqSeconds, pages / seqSeconds));
+
+        int[] threadCounts = args.length > 1 ? new int[args.length - 1] : new int[] { 2, 4, 8 };
+        for (int i = 1; i < args.length; i++) threadCounts[i - 1] = Integer.parseInt(args[i]);
+        for (int threads : threadCounts) {
+            ChecksumWriter par = new ChecksumWriter();
+            start = System.nanoTime();
+            TextDrawExtractor.processParallel(path, par, threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("pages=%d threads=%d %.3f s %.1f pages/s speedup=%.2f%s",
+                    pages, threads, seconds, pages / seconds, seqSeconds / seconds,
+                    par.crc.getValue() == seq.crc.getValue() ? "" : " OUTPUT DIFFERS"));
+        }
+    }
+
+    static class ChecksumWriter extends Writer {
+        final CRC32 crc = new CRC32();
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                crc.update(cbuf[i] >> 8);
+                crc.update(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    }
+}
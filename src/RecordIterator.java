@@ -0,0 +1,197 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pull side of an extraction, see {@link Records#iterate}. The extraction runs on its own thread and hands each
+ * record over through a bounded queue, so it runs at most {@link #QUEUED_RECORDS} records ahead of the
+ * consumer. {@link #close()} stops it at its next record and waits for it, after which the document may be used
+ * again; until then it belongs to the extraction thread. A failure of the extraction is thrown by
+ * {@link #hasNext()} after the records before it, wrapped in an UncheckedIOException if it was an IOException.
+ */
+public final class RecordIterator implements Iterator<RecordIterator.Item>, AutoCloseable {
+    static final int QUEUED_RECORDS = 1024;
+
+    public enum Kind { START_PAGE, GLYPH, PATH, IMAGE, REGION, PARTIAL, END_PAGE }
+
+    /** One record; the fields that do not apply to its kind are left unset. */
+    public static final class Item {
+        public final Kind kind;
+        public final int pageNo;
+        public float x, y, width, height;
+        /** Font size and space width of a glyph. */
+        public float fontSize, spaceWidth;
+        /** Unicode of a glyph, text of a region, or reason of a partial page. */
+        public String text;
+        /** Font of a glyph, name of a region, or file of an exported image. */
+        public String name;
+        /** Paint, operators and coordinates of a path, as in {@link RecordSink#path}. */
+        public byte paint;
+        public byte[] ops;
+        public float[] coords;
+
+        Item(Kind kind, int pageNo) {
+            this.kind = kind;
+            this.pageNo = pageNo;
+        }
+    }
+
+    static final Item END = new Item(null, 0);
+
+    final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(QUEUED_RECORDS);
+    final Thread thread;
+    volatile boolean cancelled;
+    volatile Throwable error;
+    Item next;
+    boolean done;
+
+    RecordIterator(PDDocument doc, Records.Extraction extraction) {
+        thread = new Thread(() -> {
+            try {
+                Records.run(doc, new Sink(), extraction);
+            } catch (Throwable e) {
+                error = e;
+            }
+            if (!cancelled) {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    // nobody is reading
+                }
+            }
+        }, "records");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new UncheckedIOException(new InterruptedIOException());
+            }
+            if (next == END) {
+                next = null;
+                done = true;
+                if (error instanceof IOException) throw new UncheckedIOException((IOException) error);
+                if (error instanceof RuntimeException) throw (RuntimeException) error;
+                if (error instanceof Error) throw (Error) error;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Item next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Item item = next;
+        next = null;
+        return item;
+    }
+
+    /** Stops the extraction if it is still running, and waits for it. */
+    @Override
+    public void close() {
+        cancelled = true;
+        queue.clear();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        done = true;
+        next = null;
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Hands the records to the consumer, waiting while the queue is full. */
+    final class Sink implements RecordSink {
+        void put(Item item) {
+            try {
+                while (!cancelled) {
+                    if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) return;
+                }
+            } catch (InterruptedException e) {
+                // stop as if cancelled
+            }
+            throw new RecordSink.Stop();
+        }
+
+        @Override
+        public void startPage(int pageNo) {
+            put(new Item(Kind.START_PAGE, pageNo));
+        }
+
+        @Override
+        public void glyph(String unicode, int pageNo, float x, float y, float width, float height,
+                          String fontName, float fontSize, float spaceWidth) {
+            Item item = new Item(Kind.GLYPH, pageNo);
+            item.text = unicode;
+            item.x = x;
+            item.y = y;
+            item.width = width;
+            item.height = height;
+            item.name = fontName;
+            item.fontSize = fontSize;
+            item.spaceWidth = spaceWidth;
+            put(item);
+        }
+
+        @Override
+        public void path(byte paint, int pageNo, byte[] ops, int opCount, float[] coords) {
+            int coordCount = 0;
+            for (int i = 0; i < opCount; i++) coordCount += COORDS[ops[i]];
+            Item item = new Item(Kind.PATH, pageNo);
+            item.paint = paint;
+            item.ops = Arrays.copyOf(ops, opCount);
+            item.coords = Arrays.copyOf(coords, coordCount);
+            put(item);
+        }
+
+        @Override
+        public void image(int pageNo, float x, float y, float width, float height, String file) {
+            Item item = new Item(Kind.IMAGE, pageNo);
+            item.x = x;
+            item.y = y;
+            item.width = width;
+            item.height = height;
+            item.name = file;
+            put(item);
+        }
+
+        @Override
+        public void region(int pageNo, String name, String text) {
+            Item item = new Item(Kind.REGION, pageNo);
+            item.name = name;
+            item.text = text;
+            put(item);
+        }
+
+        @Override
+        public void partial(int pageNo, String reason) {
+            Item item = new Item(Kind.PARTIAL, pageNo);
+            item.text = reason;
+            put(item);
+        }
+
+        @Override
+        public void endPage(int pageNo) {
+            put(new Item(Kind.END_PAGE, pageNo));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.IOException;
+
+/**
+ * Receives the records of the extractors as primitive values: glyphs and paths from {@link TextDrawExtractor},
+ * image placements from {@link ImageExtractor} and {@link ImageExtractor2}, and region text from
+ * {@link TextByAreaExtractor}. Every method does nothing by default, so a sink implements only what it needs.
+ *
+ * A sink stops the extraction by throwing {@link Stop} from any method, e.g. from {@link #endPage} after the
+ * first page; see {@link Records}.
+ */
+public interface RecordSink {
+    /**
+     * Path operators. RECTANGLE is an axis-aligned rectangle given by two opposite corners; BBOX stands for
+     * the whole path, as its top left and bottom right corners.
+     */
+    byte MOVE_TO = 0, LINE_TO = 1, CURVE_TO = 2, RECTANGLE = 3, BBOX = 4;
+    byte STROKE_PATH = 0, FILL_PATH = 1;
+
+    /** Number of coordinates that follow each path operator. */
+    int[] COORDS = { 2, 2, 6, 4, 4 };
+
+    /** Thrown by a sink to end the extraction early; not an error. */
+    final class Stop extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public Stop() {
+            super(null, null, false, false);
+        }
+    }
+
+    default void startPage(int pageNo) throws IOException { }
+
+    default void glyph(String unicode, int pageNo, float x, float y, float width, float height,
+                       String fontName, float fontSize, float spaceWidth) throws IOException { }
+
+    /** A painted path made of {@code ops[0..opCount)}, whose coordinates are laid out in order in {@code coords}. */
+    default void path(byte paint, int pageNo, byte[] ops, int opCount, float[] coords) throws IOException { }
+
+    /** An image drawn at x, y (upper left, from the top of the page); {@code file} is set when it was exported. */
+    default void image(int pageNo, float x, float y, float width, float height, String file) throws IOException { }
+
+    /** The text of a named region, with its line breaks. */
+    default void region(int pageNo, String name, String text) throws IOException { }
+
+    /** The rest of the page was skipped, see {@link Limits}. */
+    default void partial(int pageNo, String reason) throws IOException { }
+
+    default void endPage(int pageNo) throws IOException { }
+}
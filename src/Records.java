@@ -0,0 +1,63 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The extractors as a library, for programs that embed them instead of parsing their text output back. Each
+ * method pushes typed records into a {@link RecordSink} while the document is parsed; {@link #iterate} turns
+ * any of them into a pull iterator. A sink that throws {@link RecordSink.Stop} ends the parse at once and the
+ * method returns normally. The document is left open, and the command line options that apply to the
+ * extractor (e.g. {@code --path-bbox} or the {@link Limits}) are used.
+ * <pre>
+ * try (RecordIterator records = Records.iterate(doc, Records::images)) {
+ *     while (records.hasNext()) ...
+ * }
+ * </pre>
+ */
+public final class Records {
+    private Records() { }
+
+    /** One of the extractions below. */
+    public interface Extraction {
+        void run(PDDocument doc, RecordSink sink) throws IOException;
+    }
+
+    /** Glyphs and paths of {@link TextDrawExtractor}. */
+    public static void textDraw(PDDocument doc, RecordSink sink) throws IOException {
+        run(doc, sink, TextDrawExtractor::process);
+    }
+
+    /** Every image drawn, as {@link ImageExtractor}. */
+    public static void images(PDDocument doc, RecordSink sink) throws IOException {
+        run(doc, sink, ImageExtractor::process);
+    }
+
+    /** The images left by the filters of {@link ImageExtractor2}, all after the last page. */
+    public static void filteredImages(PDDocument doc, RecordSink sink) throws IOException {
+        run(doc, sink, ImageExtractor2::process);
+    }
+
+    /** The text of the regions of a spec file, as {@link TextByAreaExtractor}. */
+    public static void regions(PDDocument doc, Path spec, RecordSink sink) throws IOException {
+        List<TextByAreaExtractor.Region> regions = TextByAreaExtractor.parseRegions(spec);
+        run(doc, sink, (d, s) -> new TextByAreaExtractor(regions).process(d, s));
+    }
+
+    /**
+     * Runs an extraction on another thread and returns its records as they come. The extraction waits while
+     * the consumer is {@link RecordIterator#QUEUED_RECORDS} records behind, and closing the iterator stops it.
+     */
+    public static RecordIterator iterate(PDDocument doc, Extraction extraction) {
+        return new RecordIterator(doc, extraction);
+    }
+
+    static void run(PDDocument doc, RecordSink sink, Extraction extraction) throws IOException {
+        try {
+            extraction.run(doc, sink);
+        } catch (RecordSink.Stop e) {
+            // the sink has what it wants
+        }
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of extractor output, keyed by the SHA-256 of the PDF plus the extractor name and
+ * {@link #VERSION}, so an unchanged PDF is served without being loaded. Output cut short by the {@link Limits}
+ * is passed through but not stored, since the limits are not part of the key and another run may get further.
+ *
+ * A PDF whose size and modification time match the previous run reuses the hash recorded then, so unchanged
+ * files are not even read. Entries are evicted least recently used first once the cache exceeds its size cap.
+ * Enabled with {@code --cache <dir>} and {@code --cache-size <size>} (10g by default).
+ */
+final class ResultCache {
+    /** Bump whenever the output of an extractor changes, to invalidate old entries. */
+    static final String VERSION = "3";
+    static final String STAMPS = "stamps.tsv";
+    static final int HEADER_LENGTH = 17; // "pages=%010d\n" in ASCII
+
+    static ResultCache instance;
+
+    interface Extraction {
+        /** Writes the output of the extractor to {@code out} and returns the number of pages. */
+        int run(Writer out) throws IOException;
+    }
+
+    static class Stamp {
+        final long size, modified;
+        final String hash;
+
+        Stamp(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    final Path dir;
+    final long maxBytes;
+    final Map<String, Stamp> stamps = new ConcurrentHashMap<>();
+    final AtomicLong totalBytes = new AtomicLong();
+    final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+    final AtomicLong hashed = new AtomicLong(), prechecked = new AtomicLong(), evicted = new AtomicLong();
+
+    ResultCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        Path stampsFile = dir.resolve(STAMPS);
+        if (Files.exists(stampsFile)) {
+            for (String line : Files.readAllLines(stampsFile, StandardCharsets.UTF_8)) {
+                String[] f = line.split("\t");
+                if (f.length == 4) stamps.put(f[0], new Stamp(Long.parseLong(f[1]), Long.parseLong(f[2]), f[3]));
+            }
+        }
+        for (Path entry : entries()) totalBytes.addAndGet(Files.size(entry));
+    }
+
+    /** Runs {@code extraction} unless the output for this PDF and extractor is cached, and copies it to {@code out}. */
+    static int extract(Path pdf, String extractor, Writer out, Extraction extraction) throws IOException {
+        return instance == null ? extraction.run(out) : instance.get(pdf, extractor, out, extraction);
+    }
+
+    /**
+     * Returns the number of pages if {@code output} was written from the current content of {@code pdf} by a
+     * previous run, so a sidecar file does not need to be rewritten, or -1.
+     */
+    static int current(Path pdf, String extractor, Path output) throws IOException {
+        if (instance == null || !Files.exists(output)) return -1;
+        Path entry = instance.dir.resolve(instance.key(pdf, extractor));
+        try {
+            if (Files.getLastModifiedTime(output).compareTo(Files.getLastModifiedTime(pdf)) < 0
+                    || Files.size(output) != Files.size(entry) - HEADER_LENGTH) {
+                return -1;
+            }
+            int pages = pages(entry);
+            instance.hits.incrementAndGet();
+            touch(entry);
+            return pages;
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    int get(Path pdf, String extractor, Writer out, Extraction extraction) throws IOException {
+        String key = key(pdf, extractor);
+        Path entry = dir.resolve(key);
+        if (Files.exists(entry)) {
+            try {
+                int pages = copy(entry, out);
+                hits.incrementAndGet();
+                touch(entry);
+                return pages;
+            } catch (NoSuchFileException e) {
+                // evicted by another thread in the meantime
+            }
+        }
+        misses.incrementAndGet();
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            int pages;
+            try (Writer cached = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp), StandardCharsets.UTF_8))) {
+                cached.write(header(0));
+                Limits.cutShort.set(false);
+                pages = extraction.run(new TeeWriter(out, cached));
+            }
+            if (Limits.cutShort.get()) return pages;
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(header(pages).getBytes(StandardCharsets.US_ASCII)), 0);
+            }
+            long size = Files.size(tmp);
+            if (store(tmp, entry)) totalBytes.addAndGet(size);
+            if (totalBytes.get() > maxBytes) evict();
+            return pages;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Makes the complete {@code tmp} the entry, unless another thread or process stored it first; returns whether
+     * it did. A hard link fails if the entry exists, where a move would silently replace it.
+     */
+    static boolean store(Path tmp, Path entry) throws IOException {
+        try {
+            Files.createLink(entry, tmp);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException e) {
+            // no hard links here; only a store at the same instant is counted twice
+            if (Files.exists(entry)) return false;
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+    }
+
+    static String header(int pages) {
+        return String.format("pages=%010d\n", pages);
+    }
+
+    static int pages(Path entry) throws IOException {
+        try (InputStream in = Files.newInputStream(entry)) {
+            return readHeader(in);
+        }
+    }
+
+    static int readHeader(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int n = 0;
+        for (int r; n < HEADER_LENGTH && (r = in.read(header, n, HEADER_LENGTH - n)) > 0; ) n += r;
+        if (n < HEADER_LENGTH || header[HEADER_LENGTH - 1] != '\n') throw new IOException("truncated cache entry");
+        return Integer.parseInt(new String(header, 6, HEADER_LENGTH - 7, StandardCharsets.US_ASCII));
+    }
+
+    static int copy(Path entry, Writer out) throws IOException {
+        try (InputStream in = Files.newInputStream(entry)) {
+            int pages = readHeader(in);
+            Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+            char[] buffer = new char[1 << 14];
+            for (int n; (n = reader.read(buffer)) > 0; ) out.write(buffer, 0, n);
+            return pages;
+        }
+    }
+
+    static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // only affects the eviction order
+        }
+    }
+
+    String key(Path pdf, String extractor) throws IOException {
+        long size = Files.size(pdf);
+        long modified = Files.getLastModifiedTime(pdf).toMillis();
+        String path = pdf.toAbsolutePath().toString();
+        Stamp stamp = stamps.get(path);
+        if (stamp != null && stamp.size == size && stamp.modified == modified) {
+            prechecked.incrementAndGet();
+        } else {
+            stamp = new Stamp(size, modified, sha256(pdf));
+            stamps.put(path, stamp);
+            hashed.incrementAndGet();
+        }
+        return stamp.hash + "-" + extractor + PageSelection.signature() + "-v" + VERSION;
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[1 << 16];
+            for (int n; (n = in.read(buffer)) > 0; ) digest.update(buffer, 0, n);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    List<Path> entries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> p.getFileName().toString().contains("-v") && !p.toString().endsWith(".tmp")).forEach(entries::add);
+        }
+        return entries;
+    }
+
+    /** Deletes the least recently used entries until the cache is at 90% of its cap. */
+    synchronized void evict() throws IOException {
+        if (totalBytes.get() <= maxBytes) return;
+        List<Path> entries = entries();
+        Map<Path, Long> used = new ConcurrentHashMap<>();
+        for (Path entry : entries) used.put(entry, Files.getLastModifiedTime(entry).toMillis());
+        entries.sort((a, b) -> Long.compare(used.get(a), used.get(b)));
+        for (Path entry : entries) {
+            if (totalBytes.get() <= maxBytes * 9 / 10) break;
+            long size = Files.size(entry);
+            if (Files.deleteIfExists(entry)) {
+                totalBytes.addAndGet(-size);
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    /** Saves the size and modification time of the files hashed in this run. */
+    void close() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Stamp> e : stamps.entrySet()) {
+            Stamp s = e.getValue();
+            lines.add(e.getKey() + "\t" + s.size + "\t" + s.modified + "\t" + s.hash);
+        }
+        Path tmp = dir.resolve(STAMPS + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, dir.resolve(STAMPS), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    String summary() {
+        long lookups = hits.get() + misses.get();
+        return String.format("cache: %d hits, %d misses (%.1f%% hit rate), %d files hashed, %d unchanged by size and mtime, %d evicted",
+                hits.get(), misses.get(), lookups == 0 ? 0.0 : 100.0 * hits.get() / lookups,
+                hashed.get(), prechecked.get(), evicted.get());
+    }
+
+    /** Writes to two writers, the output of the run and the cache entry. */
+    static class TeeWriter extends Writer {
+        final Writer a, b;
+
+        TeeWriter(Writer a, Writer b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            a.write(cbuf, off, len);
+            b.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            a.write(str, off, len);
+            b.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            a.flush();
+            b.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -1,39 +1,275 @@
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.text.PDFTextStripperByArea;
-import java.awt.Rectangle;
-import java.io.File;
-import java.io.IOException;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
 
-public final class TextByAreaExtractor {
-    private TextByAreaExtractor() {
-        //utility class and should not be constructed.
-    }
+import java.awt.geom.Rectangle2D;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Extracts the text of named regions from every page, as PDFTextStripperByArea does for one page.
+ *
+ * The glyphs of a page are parsed once and assigned to the regions containing them through a grid index, so
+ * the cost does not grow with the number of regions times the number of glyphs. Regions are read from a spec
+ * file with one region per line, {@code <pages> <name> <x> <y> <width> <height>}, where pages is {@code *} or a
+ * comma-separated list of page numbers and ranges such as {@code 1,3-5,8-}, and the rectangle is in points
+ * from the upper left corner. Lines starting with {@code #} are ignored.
+ *
+ * Output: path, page number, region name and text, separated by tabs, with the line breaks of the text
+ * written as {@code \n}. A page cut short by a {@link Limits} limit keeps the text found so far and is
+ * followed by a {@code [PARTIAL]} line with the reason in place of the text.
+ */
+public final class TextByAreaExtractor extends PDFTextStripper {
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 1) usage();
-        else {
-            PDDocument document = null;
-            try {
-                document = PDDocument.load(new File(args[0]));
-                PDFTextStripperByArea stripper = new PDFTextStripperByArea();
-                stripper.setSortByPosition(true);
-                Rectangle rect = new Rectangle(10, 280, 275, 60);
-                stripper.addRegion("class1", rect);
-                PDPage firstPage = document.getPage(0);
-                stripper.extractRegions(firstPage);
-                System.out.println("Text in the area:" + rect);
-                System.out.println(stripper.getTextForRegion("class1"));
-            }
-            finally {
-                if (document != null) document.close();
+        args = CommonOptions.parse(args);
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+        TextByAreaExtractor extractor = new TextByAreaExtractor(parseRegions(Paths.get(args[0])));
+        for (int i = 1; i < args.length; i++) {
+            Path p = Paths.get(args[i]);
+            if (Files.isDirectory(p)) {
+                Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (file.toString().endsWith(".pdf")) extractor.processFile(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else {
+                extractor.processFile(p);
             }
         }
+        CommonOptions.finish();
     }
+
     /**
      * This will print the usage for this document.
      */
     private static void usage() {
-        System.err.println("Usage: java " + TextByAreaExtractor.class.getName() + " <input-pdf>");
+        System.err.println("Usage: java " + TextByAreaExtractor.class.getName() + " [--memory policy] [--scratch-dir dir] <regions-file> <pdf | directory>...");
+    }
+
+    static final class Region {
+        final String name;
+        /** Inclusive 1-based page ranges; empty for all pages. */
+        final int[][] pages;
+        final Rectangle2D rect;
+
+        Region(String name, int[][] pages, Rectangle2D rect) {
+            this.name = name;
+            this.pages = pages;
+            this.rect = rect;
+        }
+
+        boolean appliesTo(int pageNo) {
+            return pages.length == 0 || PageSelection.inRanges(pages, pageNo);
+        }
+    }
+
+    static List<Region> parseRegions(Path spec) throws IOException {
+        List<Region> regions = new ArrayList<>();
+        int lineNo = 0;
+        for (String line : Files.readAllLines(spec, StandardCharsets.UTF_8)) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] f = line.split("\\s+");
+            if (f.length != 6) throw new IllegalArgumentException(spec + ":" + lineNo + ": expected <pages> <name> <x> <y> <width> <height>");
+            regions.add(new Region(f[1], PageSelection.parseRanges(f[0]), new Rectangle2D.Float(
+                    Float.parseFloat(f[2]), Float.parseFloat(f[3]), Float.parseFloat(f[4]), Float.parseFloat(f[5]))));
+        }
+        return regions;
+    }
+
+    /** Regions that apply to a page, with a grid of the cells they cover. */
+    static final class RegionIndex {
+        static final float CELL = 32;
+
+        final Region[] regions;
+        final Map<Long, int[]> cells = new HashMap<>();
+
+        RegionIndex(Region[] regions) {
+            this.regions = regions;
+            Map<Long, List<Integer>> lists = new HashMap<>();
+            for (int i = 0; i < regions.length; i++) {
+                Rectangle2D r = regions[i].rect;
+                for (int cx = cell(r.getMinX()); cx <= cell(r.getMaxX()); cx++) {
+                    for (int cy = cell(r.getMinY()); cy <= cell(r.getMaxY()); cy++) {
+                        lists.computeIfAbsent(key(cx, cy), k -> new ArrayList<>()).add(i);
+                    }
+                }
+            }
+            for (Map.Entry<Long, List<Integer>> e : lists.entrySet()) {
+                cells.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+
+        static int cell(double v) {
+            return (int) Math.floor(v / CELL);
+        }
+
+        static long key(int cx, int cy) {
+            return ((long) cx << 32) | (cy & 0xffffffffL);
+        }
+
+        /** Indices of the regions whose cells contain the point, in spec order; the caller tests containment. */
+        int[] candidates(float x, float y) {
+            return cells.get(key(cell(x), cell(y)));
+        }
+    }
+
+    final List<Region> regions;
+    /** Pages with the same set of regions share an index. */
+    final Map<BitSet, RegionIndex> indexes = new HashMap<>();
+    RegionIndex index;
+    List<ArrayList<List<TextPosition>>> regionCharacters = new ArrayList<>();
+    /** Characters shown in each region, to suppress overlapping duplicates as PDFTextStripper does. */
+    List<Map<String, TreeMap<Float, TreeSet<Float>>>> regionCharacterMappings = new ArrayList<>();
+    String[] regionText;
+    Limits limits = new Limits();
+    /** Set by {@link #extractRegions} when the page was cut short. */
+    Limits.Exceeded exceeded;
+
+    public TextByAreaExtractor(List<Region> regions) throws IOException {
+        this.regions = regions;
+        setSortByPosition(true);
+        setShouldSeparateByBeads(false);
+        // done per region below, so that overlapping regions each get their characters
+        setSuppressDuplicateOverlappingText(false);
+    }
+
+    void processFile(Path path) throws IOException {
+        try (PDDocument doc = DocumentLoader.load(path); Writer w = Metrics.wrap(OutputSink.open())) {
+            process(doc, path.toString(), w);
+        }
+    }
+
+    void process(PDDocument doc, String source, Writer w) throws IOException {
+        process(doc, new RecordSink() {
+            @Override
+            public void region(int pageNo, String name, String text) throws IOException {
+                w.write(source + "\t" + pageNo + "\t" + name + "\t" + escape(text) + "\n");
+            }
+
+            @Override
+            public void partial(int pageNo, String reason) throws IOException {
+                w.write(source + "\t" + pageNo + "\t[PARTIAL]\t" + reason + "\n");
+            }
+        });
+    }
+
+    void process(PDDocument doc, RecordSink sink) throws IOException {
+        limits = new Limits();
+        sink = PageSelection.limit(sink);
+        try {
+            for (int i = 0; i < doc.getNumberOfPages(); i++) {
+                if (!PageSelection.includes(i + 1)) continue;
+                sink.startPage(i + 1);
+                String[] texts = extractRegions(doc.getPage(i), i + 1);
+                for (int r = 0; r < texts.length; r++) sink.region(i + 1, index.regions[r].name, texts[r]);
+                if (exceeded != null) sink.partial(i + 1, exceeded.getMessage());
+                sink.endPage(i + 1);
+                if (exceeded != null && exceeded.document) break;
+            }
+        } catch (RecordSink.Stop e) {
+            // --max-records reached
+        }
+        limits.finish();
+    }
+
+    /** Returns the text of each region that applies to the page, in the order of {@link #index}. */
+    String[] extractRegions(PDPage page, int pageNo) throws IOException {
+        BitSet applicable = new BitSet();
+        for (int i = 0; i < regions.size(); i++) {
+            if (regions.get(i).appliesTo(pageNo)) applicable.set(i);
+        }
+        index = indexes.computeIfAbsent(applicable, bits ->
+                new RegionIndex(bits.stream().mapToObj(regions::get).toArray(Region[]::new)));
+        int n = index.regions.length;
+        regionCharacters.clear();
+        regionCharacterMappings.clear();
+        for (int i = 0; i < n; i++) {
+            ArrayList<List<TextPosition>> characters = new ArrayList<>();
+            characters.add(new ArrayList<>());
+            regionCharacters.add(characters);
+            regionCharacterMappings.add(new HashMap<>());
+        }
+        regionText = new String[n];
+        Arrays.fill(regionText, "");
+        if (n == 0 || !page.hasContents()) return regionText;
+        // the page number of PDFTextStripper only advances in writeText
+        setStartPage(getCurrentPageNo());
+        setEndPage(getCurrentPageNo());
+        charactersByArticle = new ArrayList<>();
+        exceeded = null;
+        limits.startPage();
+        try {
+            processPage(page);
+        } catch (Limits.Exceeded e) {
+            exceeded = e;
+            limits.partialPage();
+            // the text of the characters collected so far
+            writePage();
+        }
+        return regionText;
+    }
+
+    @Override
+    protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+        limits.operator();
+        super.processOperator(operator, operands);
+    }
+
+    @Override
+    protected void processTextPosition(TextPosition text) {
+        limits.tick();
+        int[] candidates = index.candidates(text.getX(), text.getY());
+        if (candidates == null) return;
+        for (int i : candidates) {
+            if (!index.regions[i].rect.contains(text.getX(), text.getY())) continue;
+            if (isDuplicate(regionCharacterMappings.get(i), text)) continue;
+            charactersByArticle = regionCharacters.get(i);
+            super.processTextPosition(text);
+        }
+    }
+
+    /** From PDFTextStripper.processTextPosition: the same character was already shown at about the same place. */
+    static boolean isDuplicate(Map<String, TreeMap<Float, TreeSet<Float>>> characterListMapping, TextPosition text) {
+        String textCharacter = text.getUnicode();
+        float textX = text.getX();
+        float textY = text.getY();
+        TreeMap<Float, TreeSet<Float>> sameTextCharacters = characterListMapping.computeIfAbsent(textCharacter, c -> new TreeMap<>());
+        float tolerance = text.getWidth() / textCharacter.length() / 3.0f;
+        for (TreeSet<Float> xMatch : sameTextCharacters.subMap(textX - tolerance, textX + tolerance).values()) {
+            if (!xMatch.subSet(textY - tolerance, textY + tolerance).isEmpty()) return true;
+        }
+        sameTextCharacters.computeIfAbsent(textX, x -> new TreeSet<>()).add(textY);
+        return false;
+    }
+
+    @Override
+    protected void writePage() throws IOException {
+        for (int i = 0; i < regionText.length; i++) {
+            charactersByArticle = regionCharacters.get(i);
+            StringWriter text = new StringWriter();
+            output = text;
+            super.writePage();
+            regionText[i] = text.toString();
+        }
+    }
+
+    static String escape(String text) {
+        String lineSeparator = System.lineSeparator();
+        while (text.endsWith(lineSeparator)) text = text.substring(0, text.length() - lineSeparator.length());
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace(lineSeparator, "\\n").replace("\n", "\\n");
     }
-}
\ No newline at end of file
+}
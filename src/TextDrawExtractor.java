@@ -1,15 +1,15 @@
-import org.apache.fontbox.ttf.TrueTypeFont;
-import org.apache.fontbox.util.BoundingBox;
 import org.apache.pdfbox.contentstream.PDFGraphicsStreamEngine;
+import org.apache.pdfbox.contentstream.operator.Operator;
 import org.apache.pdfbox.cos.*;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.*;
-import org.apache.pdfbox.pdmodel.font.encoding.GlyphList;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDTransparencyGroup;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
 import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
-import org.apache.pdfbox.text.TextPosition;
 import org.apache.pdfbox.util.Matrix;
 import org.apache.pdfbox.util.Vector;
 
@@ -17,13 +17,39 @@ import java.awt.geom.Point2D;
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class TextDrawExtractor extends PDFGraphicsStreamEngine {
 
+    /** Number of parallel page workers for a single document; 1 keeps the sequential loop. */
+    static int pageThreads = 1;
+    /** Write a .tdb file (see {@link BinaryRecordSink}) next to each PDF instead of text to stdout. */
+    static boolean binary = false;
+    /** {@code --words} or {@code --lines}: group the glyphs of the text output, see {@link WordRecordSink}. */
+    static String grouping;
+    /** {@code --path-bbox}: write each painted path as its bounding box only. */
+    static boolean pathBoxes = false;
+
     public static void main(String[] args) throws IOException {
-        for (String path: args) {
+        args = CommonOptions.parse(args);
+        int start = 0;
+        for (; start < args.length && args[start].startsWith("-"); start++) {
+            if ("-j".equals(args[start])) pageThreads = Integer.parseInt(args[++start]);
+            else if ("--binary".equals(args[start])) binary = true;
+            else if ("--path-bbox".equals(args[start])) pathBoxes = true;
+            else if ("--words".equals(args[start]) || "--lines".equals(args[start])) grouping = args[start].substring(2);
+        }
+        for (String path: Arrays.copyOfRange(args, start, args.length)) {
             Path p = Paths.get(path);
             if (Files.isDirectory(p)) {
                 FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
@@ -37,63 +63,293 @@ public class TextDrawExtractor extends PDFGraphicsStreamEngine {
             }
             else processFile(p);
         }
+        CommonOptions.finish();
     }
 
     static void processFile(Path path) throws IOException {
-        PDDocument doc = PDDocument.load(path.toFile());
-        try (Writer w = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"))) {
-        //try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outPath), "UTF-8"))) {
+        if (binary) {
+            Path outPath = DocumentExtractor.outputFile(path, ".tdb");
+            try (PDDocument doc = DocumentLoader.load(path);
+                 BinaryRecordSink sink = new BinaryRecordSink(new FileOutputStream(outPath.toFile()))) {
+                process(doc, sink);
+            }
+            return;
+        }
+        try (Writer w = Metrics.wrap(OutputSink.open())) {
+            String name = "TextDrawExtractor" + (grouping == null ? "" : "-" + grouping) + (pathBoxes ? "-bbox" : "");
+            ResultCache.extract(path, name, w, out -> {
+                // --max-records stops at a record, which needs the pages in order
+                if (pageThreads > 1 && PageSelection.maxRecords == 0) return processParallel(path, out, pageThreads);
+                try (PDDocument doc = DocumentLoader.load(path)) {
+                    process(doc, out);
+                    return doc.getNumberOfPages();
+                }
+            });
+        }
+    }
+
+    static final int PAGES_PER_CHUNK = 8;
+    /** Chunks per thread that may be done or in progress ahead of the writer. */
+    static final int CHUNKS_AHEAD = 2;
+
+    /**
+     * Processes chunks of consecutive pages on several threads, each with its own document handle since
+     * PDDocument is not thread-safe. Every page is buffered and written in page order, so the output is the
+     * same as {@link #process(PDDocument, Writer)}, except that pages after a document timeout may already be done.
+     * At most {@link #CHUNKS_AHEAD} chunks per thread are taken before the writer is done with them, so a slow page
+     * holds up the others instead of letting the rest of the document pile up in memory. Returns the number of pages.
+     */
+    static int processParallel(Path path, Writer w, int threads) throws IOException {
+        Limits limits = new Limits();
+        int numPages;
+        try (PDDocument doc = DocumentLoader.load(path)) {
+            numPages = doc.getNumberOfPages();
+        }
+        // the writer nulls out the pages it wrote while the workers may still complete the others
+        AtomicReferenceArray<CompletableFuture<String>> pages = new AtomicReferenceArray<>(numPages);
+        for (int i = 0; i < numPages; i++) pages.set(i, new CompletableFuture<>());
+        AtomicInteger nextChunk = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        int workers = Math.max(1, Math.min(threads, (numPages + PAGES_PER_CHUNK - 1) / PAGES_PER_CHUNK));
+        // released by the writer as it finishes each chunk
+        Semaphore chunks = new Semaphore(CHUNKS_AHEAD * workers);
+        AtomicInteger running = new AtomicInteger(workers);
+        Limits[] workerLimits = new Limits[workers];
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            for (int t = 0; t < workers; t++) {
+                Limits pageLimits = workerLimits[t] = new Limits(limits.start);
+                pool.execute(() -> {
+                    // the document is counted once, by the load above; its pages are still named after it
+                    if (Metrics.enabled) Metrics.currentDocument.set(path.toString());
+                    try (PDDocument doc = DocumentLoader.open(path.toFile())) {
+                        FormCache formCache = new FormCache(null);
+                        int start;
+                        while (!failed.get() && !timedOut.get()) {
+                            chunks.acquire();
+                            if ((start = nextChunk.getAndAdd(PAGES_PER_CHUNK)) >= numPages) break;
+                            for (int i = start; i < Math.min(start + PAGES_PER_CHUNK, numPages); i++) {
+                                // a chunk taken is always completed, as the writer may be waiting for it
+                                if (timedOut.get() || !PageSelection.includes(i + 1)) {
+                                    pages.get(i).complete("");
+                                    continue;
+                                }
+                                StringWriter buffer = new StringWriter();
+                                TextDrawExtractor ext = new TextDrawExtractor(buffer, doc.getPage(i), i);
+                                ext.formCache = formCache;
+                                ext.limits = pageLimits;
+                                try {
+                                    ext.processPage(doc.getPage(i));
+                                } catch (Limits.Exceeded e) {
+                                    timedOut.set(true);
+                                }
+                                pages.get(i).complete(buffer.toString());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failed.set(true);
+                        // pages already written are nulled out by the writer loop below
+                        for (int i = 0; i < numPages; i++) {
+                            CompletableFuture<String> page = pages.get(i);
+                            if (page != null) page.completeExceptionally(e);
+                        }
+                    } finally {
+                        // after a document timeout, the pages nobody got to are left empty
+                        if (running.decrementAndGet() == 0) {
+                            for (int i = 0; i < numPages; i++) {
+                                CompletableFuture<String> page = pages.get(i);
+                                if (page != null) page.complete("");
+                            }
+                        }
+                    }
+                });
+            }
+            for (int i = 0; i < numPages; i++) {
+                w.write(pages.get(i).join());
+                pages.set(i, null);
+                if ((i + 1) % PAGES_PER_CHUNK == 0) chunks.release();
+            }
+        } catch (CompletionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        for (Limits pageLimits : workerLimits) limits.partial |= pageLimits.partial;
+        limits.finish();
+        return numPages;
+    }
+
+    static void process(PDDocument doc, Writer w) throws IOException {
+        process(doc, textSink(w));
+    }
+
+    /** The sink of the text output: one line per glyph, or per word or line with {@link #grouping}. */
+    static RecordSink textSink(Writer w) {
+        return grouping == null ? new TsvRecordSink(w) : new WordRecordSink(w, "lines".equals(grouping));
+    }
+
+    static void process(PDDocument doc, RecordSink sink) throws IOException {
+        FormCache formCache = new FormCache(null);
+        Limits limits = new Limits();
+        sink = PageSelection.limit(sink);
+        try {
             for (int i = 0; i < doc.getNumberOfPages(); i++) {
-                TextDrawExtractor ext = new TextDrawExtractor(w, doc.getPage(i), i);
+                if (!PageSelection.includes(i + 1)) continue;
+                TextDrawExtractor ext = new TextDrawExtractor(sink, doc.getPage(i), i);
+                ext.formCache = formCache;
+                ext.limits = limits;
                 ext.processPage(doc.getPage(i));
             }
+        } catch (Limits.Exceeded e) {
+            // the document is over its time limit; the page has its marker
+        } catch (RecordSink.Stop e) {
+            // --max-records reached
         }
+        limits.finish();
     }
 
-    Writer out;
+    RecordSink sink;
     int pageIndex;
     int pageRotation;
     PDRectangle pageSize;
-    Matrix translateMatrix;
-    final GlyphList glyphList;
-    List<String> drawBuffer = new ArrayList<>();
+    float pageWidth, pageHeight;
+    /** Height of the media box, to flip the y of path coordinates. */
+    float mediaHeight;
+    boolean translated;
+    float translateX, translateY;
+    PDFont lastFont;
+    UnicodeCache.Codes lastCodes;
+    FontMetrics lastMetrics;
+    /** Shared by the pages of a document by {@link #process(PDDocument, RecordSink)}. */
+    FormCache formCache = new FormCache(null);
+    PDResources formResources;
+    Matrix formInitialMatrix;
+    byte[] pathOps = new byte[16];
+    float[] pathCoords = new float[64];
+    int pathOpCount, pathCoordCount;
+    /** The current point and the start of the current subpath, in PDF space. */
+    float currentX, currentY, subpathX, subpathY;
+    /** Start of the last segment when it is a line that the next one may extend, NaN otherwise. */
+    float lineStartX = Float.NaN, lineStartY;
+    /** Bounding box of the segments of the path, in PDF space. */
+    float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+    /** Records emitted on this page, for {@link Metrics}. */
+    long glyphCount, pathOpTotal;
+    /** Shared by the pages of a document, like {@link #formCache}. */
+    Limits limits = new Limits();
 
     public TextDrawExtractor(Writer out, PDPage page, int pageIndex) throws IOException {
+        this(textSink(out), page, pageIndex);
+    }
+
+    public TextDrawExtractor(RecordSink sink, PDPage page, int pageIndex) throws IOException {
         super(page);
-        this.out = out;
+        this.sink = sink;
         this.pageIndex = pageIndex;
 
-        String path = "org/apache/pdfbox/resources/glyphlist/additional.txt";
-        InputStream input = GlyphList.class.getClassLoader().getResourceAsStream(path);
-        this.glyphList = new GlyphList(GlyphList.getAdobeGlyphList(), input);
-
         this.pageRotation = page.getRotation();
         this.pageSize = page.getCropBox();
-        if (this.pageSize.getLowerLeftX() == 0.0F && this.pageSize.getLowerLeftY() == 0.0F) {
-            this.translateMatrix = null;
-        } else {
-            this.translateMatrix = Matrix.getTranslateInstance(-this.pageSize.getLowerLeftX(), -this.pageSize.getLowerLeftY());
+        this.pageWidth = pageSize.getWidth();
+        this.pageHeight = pageSize.getHeight();
+        this.mediaHeight = page.getMediaBox().getHeight();
+        this.translated = this.pageSize.getLowerLeftX() != 0.0F || this.pageSize.getLowerLeftY() != 0.0F;
+        this.translateX = -this.pageSize.getLowerLeftX();
+        this.translateY = -this.pageSize.getLowerLeftY();
+    }
+
+    float getPageHeight() { return mediaHeight; }
+
+    @Override
+    public void processPage(PDPage page) throws IOException {
+        long start = Metrics.enabled ? System.nanoTime() : 0;
+        sink.startPage(pageIndex + 1);
+        limits.startPage();
+        Limits.Exceeded exceeded = null;
+        try {
+            super.processPage(page);
+        } catch (Limits.Exceeded e) {
+            // a path under construction is dropped with the rest of the page
+            exceeded = e;
+            limits.partialPage();
+            sink.partial(pageIndex + 1, e.getMessage());
         }
+        sink.endPage(pageIndex + 1);
+        if (Metrics.enabled) Metrics.page(pageIndex + 1, System.nanoTime() - start, glyphCount, pathOpTotal, 0);
+        if (exceeded != null && exceeded.document) throw exceeded;
+    }
+
+    @Override
+    protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+        limits.operator();
+        super.processOperator(operator, operands);
     }
 
-    float getPageHeight() { return getPage().getMediaBox().getHeight(); }
+    /** Starts a path operator with room for {@code coords} more coordinates. */
+    void addOp(byte op, int coords) {
+        if (pathOpCount == pathOps.length) pathOps = Arrays.copyOf(pathOps, pathOpCount * 2);
+        if (pathCoordCount + coords > pathCoords.length) pathCoords = Arrays.copyOf(pathCoords, pathCoords.length * 2);
+        pathOps[pathOpCount++] = op;
+    }
 
-    void addDraw(String key, Object... values) {
-        List<String> l = new ArrayList<>();
-        l.add(key);
-        for (Object v : values) l.add(String.valueOf(v));
-        drawBuffer.add(String.join(":", l));
+    void addPoint(float x, float y) {
+        pathCoords[pathCoordCount++] = x;
+        pathCoords[pathCoordCount++] = y;
+    }
+
+    void extend(float x, float y) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+    }
+
+    void emitPath(byte paint) throws IOException {
+        if (pathBoxes) {
+            pathOpCount = 0;
+            pathCoordCount = 0;
+            if (minX <= maxX) {
+                addOp(RecordSink.BBOX, 4);
+                addPoint(minX, getPageHeight() - maxY);
+                addPoint(maxX, getPageHeight() - minY);
+            }
+        }
+        pathOpTotal += pathOpCount;
+        sink.path(paint, pageIndex + 1, pathOps, pathOpCount, pathCoords);
+        resetPath();
+    }
+
+    void resetPath() {
+        pathOpCount = 0;
+        pathCoordCount = 0;
+        lineStartX = Float.NaN;
+        minX = minY = Float.POSITIVE_INFINITY;
+        maxX = maxY = Float.NEGATIVE_INFINITY;
     }
 
     @Override
     public void appendRectangle(Point2D p0, Point2D p1, Point2D p2, Point2D p3) throws IOException {
-        // copied from "allenai/pdffigures2/GraphicBBDetector.scala"
-        //moveTo((float)p0.getX(), (float)p0.getY());
-        //lineTo((float)p1.getX(), (float)p1.getY());
-        //moveTo((float)p2.getX(), (float)p2.getY());
-        //lineTo((float)p3.getX(), (float)p3.getY());
-        //closePath();
-        //addOps("[RECTANGLE]", p0.getX(), p0.getY(), p2.getX(), p2.getY());
+        float x0 = (float) p0.getX(), y0 = (float) p0.getY(), x1 = (float) p1.getX(), y1 = (float) p1.getY();
+        float x2 = (float) p2.getX(), y2 = (float) p2.getY(), x3 = (float) p3.getX(), y3 = (float) p3.getY();
+        if (y0 == y1 && x1 == x2 && y2 == y3 && x3 == x0 || x0 == x1 && y1 == y2 && x2 == x3 && y3 == y0) {
+            // one record for the four segments of "re"
+            addOp(RecordSink.RECTANGLE, 4);
+            addPoint(x0, getPageHeight() - y0);
+            addPoint(x2, getPageHeight() - y2);
+            extend(x0, y0);
+            extend(x2, y2);
+            currentX = subpathX = x0;
+            currentY = subpathY = y0;
+            lineStartX = Float.NaN;
+        } else {
+            // rotated or skewed by the CTM
+            moveTo(x0, y0);
+            lineTo(x1, y1);
+            lineTo(x2, y2);
+            lineTo(x3, y3);
+            closePath();
+        }
     }
 
     @Override
@@ -105,46 +361,82 @@ public class TextDrawExtractor extends PDFGraphicsStreamEngine {
     public void clip(int windingRule) throws IOException { }
 
     @Override
-    public void moveTo(float x, float y) throws IOException { addDraw("[MOVE_TO]", x, y); }
+    public void moveTo(float x, float y) throws IOException {
+        // a move right after another one draws nothing
+        if (pathOpCount > 0 && pathOps[pathOpCount - 1] == RecordSink.MOVE_TO) {
+            pathOpCount--;
+            pathCoordCount -= 2;
+        }
+        addOp(RecordSink.MOVE_TO, 2);
+        addPoint(x, y);
+        currentX = subpathX = x;
+        currentY = subpathY = y;
+        lineStartX = Float.NaN;
+    }
 
     @Override
-    public void lineTo(float x, float y) throws IOException { addDraw("[LINE_TO]", x, getPageHeight()-y); }
+    public void lineTo(float x, float y) throws IOException {
+        if (pathOpCount > 0 && x == currentX && y == currentY) return;
+        extend(currentX, currentY);
+        extend(x, y);
+        if (!Float.isNaN(lineStartX) && continues(lineStartX, lineStartY, currentX, currentY, x, y)) {
+            // the same line goes on: move the end of the last segment
+            pathCoords[pathCoordCount - 2] = x;
+            pathCoords[pathCoordCount - 1] = getPageHeight() - y;
+        } else {
+            addOp(RecordSink.LINE_TO, 2);
+            addPoint(x, getPageHeight() - y);
+            lineStartX = currentX;
+            lineStartY = currentY;
+        }
+        currentX = x;
+        currentY = y;
+    }
+
+    /** Maximum tangent of the angle between two segments that are merged into one line. */
+    static final float COLLINEAR_TOLERANCE = 1e-4F;
+
+    /** Whether b to c goes on in the direction of a to b. */
+    static boolean continues(float ax, float ay, float bx, float by, float cx, float cy) {
+        float ux = bx - ax, uy = by - ay, vx = cx - bx, vy = cy - by;
+        float dot = ux * vx + uy * vy;
+        return dot > 0 && Math.abs(ux * vy - uy * vx) <= COLLINEAR_TOLERANCE * dot;
+    }
 
     @Override
     public void curveTo(float x1, float y1, float x2, float y2, float x3, float y3) throws IOException {
-        addDraw("[CURVE_TO]", x1, getPageHeight()-y1, x2, getPageHeight()-y2, x3, getPageHeight()-y3);
+        extend(currentX, currentY);
+        extend(x1, y1);
+        extend(x2, y2);
+        extend(x3, y3);
+        addOp(RecordSink.CURVE_TO, 6);
+        addPoint(x1, getPageHeight() - y1);
+        addPoint(x2, getPageHeight() - y2);
+        addPoint(x3, getPageHeight() - y3);
+        currentX = x3;
+        currentY = y3;
+        lineStartX = Float.NaN;
     }
 
     @Override
-    public Point2D getCurrentPoint() throws IOException { return new Point2D.Float(0, 0); }
+    public Point2D getCurrentPoint() throws IOException { return new Point2D.Float(currentX, currentY); }
 
     @Override
-    public void closePath() throws IOException { }
+    public void closePath() throws IOException {
+        currentX = subpathX;
+        currentY = subpathY;
+        lineStartX = Float.NaN;
+    }
 
+    /** A path that is not painted, e.g. a clipping path, is dropped. */
     @Override
-    public void endPath() throws IOException { }
+    public void endPath() throws IOException { resetPath(); }
 
     @Override
-    public void strokePath() throws IOException {
-        List<String> l = new ArrayList<>();
-        l.add("[STROKE_PATH]");
-        l.add(String.valueOf(pageIndex+1));
-        for (String s : drawBuffer) l.add(s);
-        out.write(String.join("\t", l));
-        out.write("\n");
-        drawBuffer.clear();
-    }
+    public void strokePath() throws IOException { emitPath(RecordSink.STROKE_PATH); }
 
     @Override
-    public void fillPath(int windingRule) throws IOException {
-        List<String> l = new ArrayList<>();
-        l.add("[FILL_PATH]");
-        l.add(String.valueOf(pageIndex+1));
-        for (String s : drawBuffer) l.add(s);
-        out.write(String.join("\t", l));
-        out.write("\n");
-        drawBuffer.clear();
-    }
+    public void fillPath(int windingRule) throws IOException { emitPath(RecordSink.FILL_PATH); }
 
     @Override
     public void fillAndStrokePath(int windingRule) throws IOException { fillPath(windingRule); }
@@ -152,103 +444,141 @@ public class TextDrawExtractor extends PDFGraphicsStreamEngine {
     @Override
     public void shadingFill(COSName cosName) throws IOException { }
 
+    @Override
+    public void showForm(PDFormXObject form) throws IOException {
+        showForm(form, true);
+    }
+
+    @Override
+    public void showTransparencyGroup(PDTransparencyGroup group) throws IOException {
+        showForm(group, false);
+    }
+
+    /** As PDFStreamEngine.processStream, with the operators of the form from {@link #formCache}. */
+    void showForm(PDFormXObject form, boolean setInitialMatrix) throws IOException {
+        PDResources parentResources = formResources;
+        Matrix parentMatrix = formInitialMatrix;
+        formResources = form.getResources() != null ? form.getResources() : getResources();
+        Stack<PDGraphicsState> savedStack = saveGraphicsStack();
+        Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+        ctm.concatenate(form.getMatrix());
+        if (setInitialMatrix) formInitialMatrix = ctm.clone();
+        if (form.getBBox() != null) getGraphicsState().intersectClippingPath(form.getBBox().transform(ctm));
+        formCache.process(form, this::processOperator);
+        restoreGraphicsStack(savedStack);
+        formInitialMatrix = parentMatrix;
+        formResources = parentResources;
+    }
+
+    @Override
+    protected void processType3Stream(PDType3CharProc charProc, Matrix textRenderingMatrix) throws IOException {
+        // PDFStreamEngine sets the resources of the glyph itself
+        PDResources parentResources = formResources;
+        formResources = null;
+        super.processType3Stream(charProc, textRenderingMatrix);
+        formResources = parentResources;
+    }
+
+    @Override
+    public PDResources getResources() {
+        return formResources != null ? formResources : super.getResources();
+    }
+
+    @Override
+    public Matrix getInitialMatrix() {
+        return formInitialMatrix != null ? formInitialMatrix : super.getInitialMatrix();
+    }
+
     @Override
     public void showFontGlyph(Matrix textRenderingMatrix, PDFont font, int code, String unicode, Vector displacement) throws IOException {
+        limits.tick();
         // from LegacyPDFStreamEngine.showGlyph
         PDGraphicsState state = this.getGraphicsState();
         Matrix ctm = state.getCurrentTransformationMatrix();
         float fontSize = state.getTextState().getFontSize();
         float horizontalScaling = state.getTextState().getHorizontalScaling() / 100.0F;
         Matrix textMatrix = this.getTextMatrix();
-        BoundingBox bbox = font.getBoundingBox();
-        if (bbox.getLowerLeftY() < -32768.0F) {
-            bbox.setLowerLeftY(-(bbox.getLowerLeftY() + 65536.0F));
-        }
-
-        float glyphHeight = bbox.getHeight() / 2.0F;
-        PDFontDescriptor fontDescriptor = font.getFontDescriptor();
-        float height;
-        if (fontDescriptor != null) {
-            height = fontDescriptor.getCapHeight();
-            if (height != 0.0F && (height < glyphHeight || glyphHeight == 0.0F)) {
-                glyphHeight = height;
-            }
+        if (font != lastFont) {
+            lastFont = font;
+            lastCodes = UnicodeCache.forFont(font);
+            lastMetrics = FontMetrics.forFont(font);
         }
-
-        height = glyphHeight / 1000.0F;
+        FontMetrics metrics = lastMetrics;
 
         float displacementX = displacement.getX();
-        if (font.isVertical()) {
+        if (metrics.vertical) {
             displacementX = font.getWidth(code) / 1000.0F;
-            TrueTypeFont ttf = null;
-            if (font instanceof PDTrueTypeFont) {
-                ttf = ((PDTrueTypeFont)font).getTrueTypeFont();
-            } else if (font instanceof PDType0Font) {
-                PDCIDFont cidFont = ((PDType0Font)font).getDescendantFont();
-                if(cidFont instanceof PDCIDFontType2) {
-                    ttf = ((PDCIDFontType2)cidFont).getTrueTypeFont();
-                }
-            }
-
-            if (ttf != null && ttf.getUnitsPerEm() != 1000) {
-                displacementX *= 1000.0F / (float)ttf.getUnitsPerEm();
-            }
+            displacementX *= metrics.verticalScale;
         }
 
         float tx = displacementX * fontSize * horizontalScaling;
         float ty = displacement.getY() * fontSize;
-        Matrix td = Matrix.getTranslateInstance(tx, ty);
-        Matrix nextTextRenderingMatrix = td.multiply(textMatrix).multiply(ctm);
-        float nextX = nextTextRenderingMatrix.getTranslateX();
-        float nextY = nextTextRenderingMatrix.getTranslateY();
+        // translation of Matrix.getTranslateInstance(tx, ty).multiply(textMatrix).multiply(ctm), with the
+        // same float operations but without allocating the matrices
+        float tmX = tx * textMatrix.getScaleX() + ty * textMatrix.getShearX() + textMatrix.getTranslateX();
+        float tmY = tx * textMatrix.getShearY() + ty * textMatrix.getScaleY() + textMatrix.getTranslateY();
+        float nextX = tmX * ctm.getScaleX() + tmY * ctm.getShearX() + ctm.getTranslateX();
+        float nextY = tmX * ctm.getShearY() + tmY * ctm.getScaleY() + ctm.getTranslateY();
         float dxDisplay = nextX - textRenderingMatrix.getTranslateX();
-        float dyDisplay = height * textRenderingMatrix.getScalingFactorY();
-        float glyphSpaceToTextSpaceFactor = 0.001F;
-        if (font instanceof PDType3Font) {
-            glyphSpaceToTextSpaceFactor = font.getFontMatrix().getScaleX();
-        }
-
-        float spaceWidthText = 0.0F;
-
-        try {
-            spaceWidthText = font.getSpaceWidth() * glyphSpaceToTextSpaceFactor;
-        } catch (Throwable e) {
-            //LOG.warn(e, e);
-        }
-
-        if (spaceWidthText == 0.0F) {
-            spaceWidthText = font.getAverageFontWidth() * glyphSpaceToTextSpaceFactor;
-            spaceWidthText *= 0.8F;
-        }
-
-        if (spaceWidthText == 0.0F) spaceWidthText = 1.0F;
-
-        float spaceWidthDisplay = spaceWidthText * textRenderingMatrix.getScalingFactorX();
-        unicode = font.toUnicode(code, this.glyphList);
+        float dyDisplay = metrics.height * textRenderingMatrix.getScalingFactorY();
+        float spaceWidthDisplay = metrics.spaceWidth * textRenderingMatrix.getScalingFactorX();
+        unicode = lastCodes.toUnicode(font, code);
         if (unicode == null) {
             if (!(font instanceof PDSimpleFont)) return;
-            unciode = "[NO_UNICODE]";
+            unicode = "[NO_UNICODE]";
         }
 
-        Matrix translatedTextRenderingMatrix;
-        if (this.translateMatrix == null) {
-            translatedTextRenderingMatrix = textRenderingMatrix;
-        } else {
-            translatedTextRenderingMatrix = Matrix.concatenate(this.translateMatrix, textRenderingMatrix);
+        // translation of Matrix.concatenate(translateMatrix, textRenderingMatrix), as TextPosition sees it
+        float x = textRenderingMatrix.getTranslateX();
+        float y = textRenderingMatrix.getTranslateY();
+        if (translated) {
+            float w = textRenderingMatrix.getValue(2, 2);
+            float x0 = x;
+            x = x0 * 1.0F + y * 0.0F + w * translateX;
+            y = x0 * 0.0F + y * 1.0F + w * translateY;
             nextX -= this.pageSize.getLowerLeftX();
             nextY -= this.pageSize.getLowerLeftY();
         }
 
-        TextPosition p = new TextPosition(pageRotation, pageSize.getWidth(), pageSize.getHeight(), translatedTextRenderingMatrix,
-                nextX, nextY, Math.abs(dyDisplay), dxDisplay, Math.abs(spaceWidthDisplay),
-                unicode, new int[]{code}, font, fontSize, (int) (fontSize * textMatrix.getScalingFactorX()));
+        // TextPosition.getXDirAdj(), getYDirAdj() and getWidthDirAdj() for the text direction
+        float xDirAdj, yDirAdj, widthDirAdj;
+        switch (textDirection(textRenderingMatrix)) {
+            case 90:
+                xDirAdj = y;
+                yDirAdj = pageWidth - (pageWidth - x);
+                widthDirAdj = Math.abs(nextY - y);
+                break;
+            case 180:
+                xDirAdj = pageWidth - x;
+                yDirAdj = pageHeight - (pageHeight - y);
+                widthDirAdj = Math.abs(nextX - x);
+                break;
+            case 270:
+                xDirAdj = pageHeight - y;
+                yDirAdj = pageWidth - x;
+                widthDirAdj = Math.abs(nextY - y);
+                break;
+            default:
+                xDirAdj = x;
+                yDirAdj = pageHeight - y;
+                widthDirAdj = Math.abs(nextX - x);
+        }
+
+        glyphCount++;
+        sink.glyph(unicode, pageIndex + 1, xDirAdj, yDirAdj, widthDirAdj, Math.abs(dyDisplay),
+                font.getName(), fontSize, Math.abs(spaceWidthDisplay));
+    }
 
-        List<String> l = new ArrayList<>();
-        l.add(unicode);
-        l.add(String.valueOf(pageIndex+1));
-        Object[] values = new Object[] { p.getXDirAdj(), p.getYDirAdj(), p.getWidthDirAdj(), p.getHeightDir(), font.getName(), fontSize, p.getWidthOfSpace() };
-        for (Object v : values) l.add(String.valueOf(v));
-        out.write(String.join("\t", l));
-        out.write("\n");
+    /** Same as TextPosition.getDir(); a translation does not change it. */
+    static int textDirection(Matrix m) {
+        float a = m.getScaleY();
+        float b = m.getShearY();
+        float c = m.getShearX();
+        float d = m.getScaleX();
+        if (a > 0 && Math.abs(b) < d && Math.abs(c) < a && d > 0) return 0;
+        if (a < 0 && Math.abs(b) < Math.abs(d) && Math.abs(c) < Math.abs(a) && d < 0) return 180;
+        if (Math.abs(a) < Math.abs(c) && b > 0 && c < 0 && Math.abs(d) < b) return 90;
+        if (Math.abs(a) < c && b < 0 && c > 0 && Math.abs(d) < Math.abs(b)) return 270;
+        return 0;
     }
-}
+}
\ No newline at end of file
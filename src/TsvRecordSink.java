@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes records as tab-separated lines. Each line is formatted into a reused buffer and written as a
+ * char range, so no objects are allocated per record.
+ */
+public class TsvRecordSink implements RecordSink {
+    static final String[] OP_NAMES = { "[MOVE_TO]", "[LINE_TO]", "[CURVE_TO]", "[RECTANGLE]", "[BBOX]" };
+    static final String[] PAINT_NAMES = { "[STROKE_PATH]", "[FILL_PATH]" };
+
+    final Writer out;
+    final StringBuilder line = new StringBuilder(128);
+    char[] chars = new char[128];
+
+    public TsvRecordSink(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void glyph(String unicode, int pageNo, float x, float y, float width, float height,
+                      String fontName, float fontSize, float spaceWidth) throws IOException {
+        line.setLength(0);
+        // StringBuilder.append(float) formats exactly like String.valueOf(float)
+        line.append(unicode).append('\t').append(pageNo)
+                .append('\t').append(x).append('\t').append(y)
+                .append('\t').append(width).append('\t').append(height)
+                .append('\t').append(fontName).append('\t').append(fontSize)
+                .append('\t').append(spaceWidth).append('\n');
+        writeLine();
+    }
+
+    @Override
+    public void path(byte paint, int pageNo, byte[] ops, int opCount, float[] coords) throws IOException {
+        line.setLength(0);
+        line.append(PAINT_NAMES[paint]).append('\t').append(pageNo);
+        for (int i = 0, c = 0; i < opCount; i++) {
+            line.append('\t').append(OP_NAMES[ops[i]]);
+            for (int end = c + COORDS[ops[i]]; c < end; c++) line.append(':').append(coords[c]);
+        }
+        line.append('\n');
+        writeLine();
+    }
+
+    @Override
+    public void image(int pageNo, float x, float y, float width, float height, String file) throws IOException {
+        line.setLength(0);
+        line.append(pageNo).append('\t').append(x).append('\t').append(y)
+                .append('\t').append(width).append('\t').append(height);
+        if (file != null) line.append('\t').append(file);
+        line.append('\n');
+        writeLine();
+    }
+
+    @Override
+    public void partial(int pageNo, String reason) throws IOException {
+        out.write("[PARTIAL]\t" + pageNo + "\t" + reason + "\n");
+    }
+
+    void writeLine() throws IOException {
+        int len = line.length();
+        if (chars.length < len) chars = new char[Math.max(len, chars.length * 2)];
+        line.getChars(0, len, chars, 0);
+        out.write(chars, 0, len);
+    }
+}
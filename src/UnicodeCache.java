@@ -0,0 +1,63 @@
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.encoding.GlyphList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide glyph list and cache of {@link PDFont#toUnicode(int, GlyphList)} per font and code,
+ * shared by all pages, documents and threads.
+ */
+final class UnicodeCache {
+    private UnicodeCache() {
+    }
+
+    static final GlyphList GLYPH_LIST = loadGlyphList();
+
+    /** Cached result of codes that have no unicode mapping; compared by identity. */
+    private static final String NONE = new String("");
+
+    /** Weak keys so that fonts of finished documents can be collected. */
+    private static final Map<PDFont, Codes> FONTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static GlyphList loadGlyphList() {
+        String path = "org/apache/pdfbox/resources/glyphlist/additional.txt";
+        try (InputStream input = GlyphList.class.getClassLoader().getResourceAsStream(path)) {
+            return new GlyphList(GlyphList.getAdobeGlyphList(), input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Callers should keep the result while the font does not change, to skip the lookup per glyph. */
+    static Codes forFont(PDFont font) {
+        synchronized (FONTS) {
+            return FONTS.computeIfAbsent(font, f -> new Codes());
+        }
+    }
+
+    static final class Codes {
+        // single byte codes go to a plain array; a racy write only means the value is computed twice
+        private final String[] small = new String[256];
+        private final Map<Integer, String> large = new ConcurrentHashMap<>();
+
+        String toUnicode(PDFont font, int code) throws IOException {
+            String unicode = code >= 0 && code < small.length ? small[code] : large.get(code);
+            if (unicode == null) {
+                // GlyphList memoizes uniXXXX names in an unsynchronized map
+                synchronized (GLYPH_LIST) {
+                    unicode = font.toUnicode(code, GLYPH_LIST);
+                }
+                if (unicode == null) unicode = NONE;
+                if (code >= 0 && code < small.length) small[code] = unicode;
+                else large.put(code, unicode);
+            }
+            return unicode == NONE ? null : unicode;
+        }
+    }
+}
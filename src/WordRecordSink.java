@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes the glyphs of {@link TextDrawExtractor} grouped into words, or lines, as they arrive, one record per group
+ * instead of one per glyph:
+ * {@code [WORD] page x y width height font fontSize text offsets} ({@code [LINE]} for lines), where x and y are
+ * those of the first glyph, width spans to the end of the last one, height is the largest glyph height, and
+ * offsets gives the x of each char of the text relative to x, separated by commas. Paths are written as by
+ * {@link TsvRecordSink}, after the group before them.
+ *
+ * A glyph starts a new group when it is on another baseline or goes back left of the group; for words, also when
+ * it is more than half a space width past the previous glyph, or is a space. In lines, such gaps and spaces
+ * become one space in the text.
+ */
+public class WordRecordSink extends TsvRecordSink {
+    /** Share of the glyph height by which baselines of one line may differ. */
+    static final float BASELINE_TOLERANCE = 0.5F;
+    /** Share of the space width that separates words; of the glyph width when the font has no space width. */
+    static final float SPACE_TOLERANCE = 0.5F;
+    static final float WIDTH_TOLERANCE = 0.3F;
+
+    final boolean lines;
+    final StringBuilder text = new StringBuilder();
+    float[] offsets = new float[64];
+    int pageNo;
+    float x, y, end, height, fontSize;
+    String fontName;
+    /** A gap or space seen after the last glyph of a line. */
+    boolean gap;
+
+    public WordRecordSink(Writer out, boolean lines) {
+        super(out);
+        this.lines = lines;
+    }
+
+    @Override
+    public void glyph(String unicode, int pageNo, float x, float y, float width, float height,
+                      String fontName, float fontSize, float spaceWidth) throws IOException {
+        boolean space = isSpace(unicode);
+        if (text.length() > 0) {
+            float tolerance = spaceWidth > 0 ? spaceWidth * SPACE_TOLERANCE : width * WIDTH_TOLERANCE;
+            boolean sameLine = pageNo == this.pageNo
+                    && Math.abs(y - this.y) <= Math.max(height, this.height) * BASELINE_TOLERANCE
+                    && x >= this.x;
+            if (!sameLine || !lines && (space || x - end > tolerance)) {
+                flush();
+            } else if (space || x - end > tolerance) {
+                gap = true;
+            }
+        }
+        if (space) return;
+        if (text.length() == 0) {
+            this.pageNo = pageNo;
+            this.x = x;
+            this.y = y;
+            this.end = x;
+            this.height = 0;
+            this.fontName = fontName;
+            this.fontSize = fontSize;
+            gap = false;
+        } else if (gap) {
+            append(' ', end - this.x);
+            gap = false;
+        }
+        for (int i = 0; i < unicode.length(); i++) append(unicode.charAt(i), x - this.x);
+        end = Math.max(end, x + width);
+        this.height = Math.max(this.height, height);
+    }
+
+    static boolean isSpace(String unicode) {
+        for (int i = 0; i < unicode.length(); i++) {
+            char c = unicode.charAt(i);
+            if (!Character.isWhitespace(c) && !Character.isSpaceChar(c)) return false;
+        }
+        return true;
+    }
+
+    void append(char c, float offset) {
+        if (text.length() == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[text.length()] = offset;
+        text.append(c);
+    }
+
+    /** Writes the current group, if any. */
+    void flush() throws IOException {
+        if (text.length() == 0) return;
+        line.setLength(0);
+        line.append(lines ? "[LINE]" : "[WORD]").append('\t').append(pageNo)
+                .append('\t').append(x).append('\t').append(y)
+                .append('\t').append(end - x).append('\t').append(height)
+                .append('\t').append(fontName).append('\t').append(fontSize)
+                .append('\t').append(text).append('\t');
+        for (int i = 0; i < text.length(); i++) {
+            if (i > 0) line.append(',');
+            // hundredths of a point are plenty and keep the numbers short
+            line.append(Math.round(offsets[i] * 100) / 100F);
+        }
+        line.append('\n');
+        writeLine();
+        text.setLength(0);
+    }
+
+    @Override
+    public void path(byte paint, int pageNo, byte[] ops, int opCount, float[] coords) throws IOException {
+        flush();
+        super.path(paint, pageNo, ops, opCount, coords);
+    }
+
+    @Override
+    public void partial(int pageNo, String reason) throws IOException {
+        flush();
+        super.partial(pageNo, reason);
+    }
+
+    @Override
+    public void endPage(int pageNo) throws IOException {
+        flush();
+        super.endPage(pageNo);
+    }
+}